@@ -0,0 +1,49 @@
+package me.asaushkin.ch02.knn;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Distance kernels on the Vector API. Only compiled by the java17 source set and
+ * packaged under META-INF/versions/17, see {@link DistanceKernels}.
+ */
+public final class VectorDistanceKernel implements DistanceKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double squaredEuclidean(double[] data, int offset, double[] query, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(SPECIES, data, offset + i)
+                    .sub(DoubleVector.fromArray(SPECIES, query, i));
+            sum = diff.fma(diff, sum);
+        }
+        double ret = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double diff = data[offset + i] - query[i];
+            ret += diff * diff;
+        }
+        return ret;
+    }
+
+    @Override
+    public double manhattan(double[] data, int offset, double[] query, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upperBound; i += SPECIES.length()) {
+            sum = sum.add(DoubleVector.fromArray(SPECIES, data, offset + i)
+                    .sub(DoubleVector.fromArray(SPECIES, query, i))
+                    .abs());
+        }
+        double ret = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            ret += Math.abs(data[offset + i] - query[i]);
+        }
+        return ret;
+    }
+}
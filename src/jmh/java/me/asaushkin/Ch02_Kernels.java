@@ -0,0 +1,98 @@
+package me.asaushkin;
+
+import me.asaushkin.ch02.knn.DistanceKernel;
+import me.asaushkin.ch02.knn.DistanceKernels;
+import me.asaushkin.ch02.knn.TrainingSet;
+import me.asaushkin.ch02.knn.book.BankMarketing;
+import me.asaushkin.ch02.knn.book.BankMarketingLoader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nanoseconds per training row of the scalar and the Vector API distance kernels
+ * on the 66 dimensional BankMarketing vectors. The vector kernel needs a JDK 17+ run
+ * with --add-modules jdk.incubator.vector, the jmh task adds it when available.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Ch02_Kernels {
+
+    static final int ROWS = 4096;
+
+    @State(Scope.Benchmark)
+    public static class KernelState {
+
+        @Param({"scalar", "vector"})
+        String kernelName;
+
+        DistanceKernel kernel;
+        double[] features;
+        double[] query;
+        int dimension;
+
+        @Setup
+        public void initialize() {
+            List<BankMarketing> train;
+            try {
+                train = BankMarketingLoader.load("bank.data", ROWS + 1);
+            } catch (URISyntaxException e) {
+                throw new RuntimeException(e);
+            }
+
+            TrainingSet trainingSet = new TrainingSet(train.subList(0, ROWS));
+            dimension = trainingSet.dimension();
+            features = new double[ROWS * dimension];
+            for (int row = 0; row < ROWS; row++) {
+                for (int i = 0; i < dimension; i++) {
+                    features[row * dimension + i] = trainingSet.getFeature(row, i);
+                }
+            }
+            query = train.get(ROWS).getExample();
+
+            kernel = "vector".equals(kernelName) ? DistanceKernels.vector() : DistanceKernels.scalar();
+            if (kernel == null) {
+                throw new IllegalStateException("Vector API kernel is not available, run on JDK 17+ " +
+                        "with --add-modules jdk.incubator.vector");
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double squaredEuclidean(KernelState state) {
+        double ret = 0.0d;
+        for (int row = 0; row < ROWS; row++) {
+            ret += state.kernel.squaredEuclidean(state.features, row * state.dimension, state.query, state.dimension);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double manhattan(KernelState state) {
+        double ret = 0.0d;
+        for (int row = 0; row < ROWS; row++) {
+            ret += state.kernel.manhattan(state.features, row * state.dimension, state.query, state.dimension);
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(".*" + Ch02_Kernels.class.getSimpleName() + ".*")
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .jvmArgsPrepend("--add-modules=jdk.incubator.vector")
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
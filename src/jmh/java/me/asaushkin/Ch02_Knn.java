@@ -1,8 +1,18 @@
 package me.asaushkin;
 
 import me.asaushkin.ch02.knn.KnnCoarseGrainedClassifier;
+import me.asaushkin.ch02.knn.HnswIndex;
+import me.asaushkin.ch02.knn.KnnHotPoolClassifier;
+import me.asaushkin.ch02.knn.KdTree;
 import me.asaushkin.ch02.knn.KnnFineGrainedClassifier;
+import me.asaushkin.ch02.knn.KnnForkJoinClassifier;
+import me.asaushkin.ch02.knn.KnnHnswClassifier;
+import me.asaushkin.ch02.knn.KnnKdTreeClassifier;
+import me.asaushkin.ch02.knn.KnnPackedClassifier;
 import me.asaushkin.ch02.knn.KnnSerialClassifier;
+import me.asaushkin.ch02.knn.KnnStreamClassifier;
+import me.asaushkin.ch02.knn.PackedTrainingSet;
+import me.asaushkin.ch02.knn.TrainingSet;
 import me.asaushkin.ch02.knn.book.BankMarketing;
 import me.asaushkin.ch02.knn.book.BankMarketingLoader;
 import org.openjdk.jmh.annotations.*;
@@ -12,6 +22,7 @@ import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -19,12 +30,18 @@ import java.util.concurrent.ThreadLocalRandom;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+@BenchmarkMode(Mode.AverageTime)
 public class Ch02_Knn {
 
     @State(Scope.Benchmark)
     public static class BenchmarkState {
         List<BankMarketing> train;
         List<BankMarketing> test;
+        TrainingSet trainingSet;
+        KdTree tree;
+        PackedTrainingSet packed;
+        KnnSerialClassifier serialClassifier;
+        KnnKdTreeClassifier kdTreeClassifier;
         int k = 10;
         ExecutorService executorService;
 
@@ -33,6 +50,11 @@ public class Ch02_Knn {
             try {
                 train = BankMarketingLoader.load("bank.data");
                 test  = BankMarketingLoader.load("bank.test");
+                trainingSet = new TrainingSet(train);
+                tree = KdTree.build(trainingSet);
+                packed = new PackedTrainingSet(trainingSet);
+                serialClassifier = new KnnSerialClassifier(trainingSet, k);
+                kdTreeClassifier = new KnnKdTreeClassifier(tree, k);
             } catch (URISyntaxException e) {
                 throw new RuntimeException(e);
             }
@@ -51,9 +73,59 @@ public class Ch02_Knn {
         }
     }
 
+    /**
+     * The index is built only for the benchmarks which use it
+     */
+    @State(Scope.Benchmark)
+    public static class HnswState {
+        HnswIndex hnsw;
+
+        @Setup
+        public void initialize(BenchmarkState state) {
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                hnsw = HnswIndex.build(state.trainingSet, 16, 200, 64, executor);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * The worker threads run only during the benchmarks which use them
+     */
+    @State(Scope.Benchmark)
+    public static class HotPoolState {
+        KnnHotPoolClassifier hotPoolClassifier;
+
+        @Setup
+        public void initialize(BenchmarkState state) {
+            hotPoolClassifier = new KnnHotPoolClassifier(state.trainingSet, state.k);
+        }
+
+        @TearDown
+        public void destroy() {
+            hotPoolClassifier.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void coarseGrainedKnnWithTopK(BenchmarkState state) {
+        KnnCoarseGrainedClassifier classifier = new KnnCoarseGrainedClassifier(state.trainingSet, state.k,
+                state.executorService);
+        try {
+            classifier.classify(state.randomTestSample());
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Benchmark
     public void coarseGrainedKnnWithoutParallelSort(BenchmarkState state) {
-        KnnCoarseGrainedClassifier classifier = new KnnCoarseGrainedClassifier(state.train, state.k,
+        KnnCoarseGrainedClassifier classifier = new KnnCoarseGrainedClassifier(state.trainingSet, state.k,
                 false, state.executorService);
         try {
             classifier.classify(state.randomTestSample());
@@ -64,7 +136,7 @@ public class Ch02_Knn {
 
     @Benchmark
     public void coarseGrainedKnnWithParallelSort(BenchmarkState state) {
-        KnnCoarseGrainedClassifier classifier = new KnnCoarseGrainedClassifier(state.train, state.k,
+        KnnCoarseGrainedClassifier classifier = new KnnCoarseGrainedClassifier(state.trainingSet, state.k,
                 true, state.executorService);
         try {
             classifier.classify(state.randomTestSample());
@@ -73,9 +145,20 @@ public class Ch02_Knn {
         }
     }
 
+    @Benchmark
+    public void fineGrainedKnnWithTopK(BenchmarkState state) {
+        KnnFineGrainedClassifier classifier = new KnnFineGrainedClassifier(state.trainingSet, state.k,
+                state.executorService);
+        try {
+            classifier.classify(state.randomTestSample());
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Benchmark
     public void fineGrainedKnnWithoutParallelSort(BenchmarkState state) {
-        KnnFineGrainedClassifier classifier = new KnnFineGrainedClassifier(state.train, state.k,
+        KnnFineGrainedClassifier classifier = new KnnFineGrainedClassifier(state.trainingSet, state.k,
                 false, state.executorService);
         try {
             classifier.classify(state.randomTestSample());
@@ -86,7 +169,7 @@ public class Ch02_Knn {
 
     @Benchmark
     public void fineGrainedKnnWithParallelSort(BenchmarkState state) {
-        KnnFineGrainedClassifier classifier = new KnnFineGrainedClassifier(state.train, state.k,
+        KnnFineGrainedClassifier classifier = new KnnFineGrainedClassifier(state.trainingSet, state.k,
                 true, state.executorService);
         try {
             classifier.classify(state.randomTestSample());
@@ -95,24 +178,115 @@ public class Ch02_Knn {
         }
     }
 
+    @Benchmark
+    public void forkJoinKnn(BenchmarkState state) {
+        KnnForkJoinClassifier classifier = new KnnForkJoinClassifier(state.trainingSet, state.k, null);
+        classifier.classify(state.randomTestSample());
+    }
+
+    @Benchmark
+    public void hnswKnn(BenchmarkState state, HnswState hnswState) {
+        KnnHnswClassifier classifier = new KnnHnswClassifier(hnswState.hnsw, state.k);
+        classifier.classify(state.randomTestSample());
+    }
+
+    /**
+     * The workers are started once with their state, run in the SampleTime mode to
+     * compare the latency percentiles with coarseGrainedKnnWithTopK
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public String hotPoolKnn(BenchmarkState state, HotPoolState hotPoolState) {
+        return hotPoolState.hotPoolClassifier.classify(state.randomTestSample());
+    }
+
+    @Benchmark
+    public void kdTreeKnn(BenchmarkState state) {
+        KnnKdTreeClassifier classifier = new KnnKdTreeClassifier(state.tree, state.k);
+        classifier.classify(state.randomTestSample());
+    }
+
+    /**
+     * The classifier is kept in the state, run with -prof gc to see that a
+     * classification doesn't allocate
+     */
+    @Benchmark
+    public String kdTreeKnnReusedClassifier(BenchmarkState state) {
+        return state.kdTreeClassifier.classify(state.randomTestSample());
+    }
+
+    @Benchmark
+    public void packedKnn(BenchmarkState state) {
+        KnnPackedClassifier classifier = new KnnPackedClassifier(state.packed, state.k);
+        classifier.classify(state.randomTestSample());
+    }
+
+    @Benchmark
+    public void serialKnnWithTopK(BenchmarkState state) {
+        KnnSerialClassifier classifier = new KnnSerialClassifier(state.trainingSet, state.k);
+        classifier.classify(state.randomTestSample());
+    }
+
+    /**
+     * The classifier is kept in the state, run with -prof gc to see that a
+     * classification doesn't allocate
+     */
+    @Benchmark
+    public String serialKnnReusedClassifier(BenchmarkState state) {
+        return state.serialClassifier.classify(state.randomTestSample());
+    }
+
     @Benchmark
     public void serialKnnWithoutParallelSort(BenchmarkState state) {
-        KnnSerialClassifier classifier = new KnnSerialClassifier(state.train, state.k, false);
+        KnnSerialClassifier classifier = new KnnSerialClassifier(state.trainingSet, state.k, false);
         classifier.classify(state.randomTestSample());
     }
 
     @Benchmark
     public void serialKnnWithParallelSort(BenchmarkState state) {
-        KnnSerialClassifier classifier = new KnnSerialClassifier(state.train, state.k, true);
+        KnnSerialClassifier classifier = new KnnSerialClassifier(state.trainingSet, state.k, true);
+        classifier.classify(state.randomTestSample());
+    }
+
+    @Benchmark
+    public void streamKnn(BenchmarkState state) {
+        KnnStreamClassifier classifier = new KnnStreamClassifier(state.trainingSet, state.k);
         classifier.classify(state.randomTestSample());
     }
 
+    @Benchmark
+    public List<String> serialKnnTestSetLoop(BenchmarkState state) {
+        KnnSerialClassifier classifier = new KnnSerialClassifier(state.trainingSet, state.k);
+        List<String> result = new ArrayList<>(state.test.size());
+        for (BankMarketing example : state.test) {
+            result.add(classifier.classify(example));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> serialKnnTestSetBatch(BenchmarkState state) {
+        KnnSerialClassifier classifier = new KnnSerialClassifier(state.trainingSet, state.k);
+        return classifier.classifyAll(state.test);
+    }
+
+    @Benchmark
+    public List<String> serialKnnTestSetBatchWithNorms(BenchmarkState state) {
+        KnnSerialClassifier classifier = new KnnSerialClassifier(state.trainingSet, state.k);
+        return classifier.classifyAll(state.test, true);
+    }
+
+    @Benchmark
+    public List<String> forkJoinKnnTestSetBatch(BenchmarkState state) {
+        KnnForkJoinClassifier classifier = new KnnForkJoinClassifier(state.trainingSet, state.k, null);
+        return classifier.classifyAll(state.test);
+    }
+
     public static void main(String[] args) throws RunnerException {
         Options opt = new OptionsBuilder()
                 .include(".*" + Ch02_Knn.class.getSimpleName() + ".*")
                 .warmupIterations(5)
                 .measurementIterations(5)
-                .mode(Mode.AverageTime)
                 .forks(1)
                 .build();
 
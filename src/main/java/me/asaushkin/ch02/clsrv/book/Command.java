@@ -1,5 +1,7 @@
 package me.asaushkin.ch02.clsrv.book;
 
+import me.asaushkin.ch02.knn.KnnClassifier;
+import me.asaushkin.ch02.knn.book.BankMarketing;
 import me.asaushkin.ch03.ConcurrentServerCh3;
 
 import java.net.URISyntaxException;
@@ -359,5 +361,81 @@ public abstract class Command {
             return dao.report(command[1]);
         }
 
+    }
+
+	/**
+     * Class that implements the concurrent version of the Classify command. The format of
+     * this query is: c;feature1;...;feature66;k where the features are the values of the
+     * attributes of a BankMarketing example and k is an optional parameter with the number
+     * of neighbours. The example is classified with the classifier loaded by the server.
+     * Only the tags are cached, the errors are not
+     * @author author
+     *
+     */
+    public static class ConcurrentClassifyCommand extends Command {
+
+        /**
+         * Number of attributes of a BankMarketing example
+         */
+        private static final int FEATURES = 66;
+
+        /**
+         * Constructor of the class
+         * @param command String that represents the command
+         */
+        public ConcurrentClassifyCommand (String [] command) {
+            super(command);
+        }
+
+        @Override
+        /**
+         * Method that executes the command
+         */
+        public String execute() {
+
+            if (command.length!=FEATURES+1 && command.length!=FEATURES+2) {
+                return error("ERROR;Bad Command");
+            }
+
+            BankMarketing example=new BankMarketing();
+            int k;
+            try {
+                double []features=new double[FEATURES];
+                for (int i=0; i<FEATURES; i++) {
+                    features[i]=Double.parseDouble(command[i+1]);
+                }
+                example.setData(features, null);
+                k=command.length==FEATURES+2 ? Integer.parseInt(command[FEATURES+1]) : ConcurrentServerCh3.DEFAULT_K;
+            } catch (IllegalArgumentException e) {
+                return error("ERROR;Bad Command");
+            }
+
+            if (k<=0 || k>ConcurrentServerCh3.getMaxK()) {
+                return error("ERROR;Bad Command");
+            }
+
+            KnnClassifier classifier=ConcurrentServerCh3.getClassifier(k);
+            if (classifier==null) {
+                return error("ERROR;Classifier not loaded");
+            }
+
+            try {
+                return classifier.classify(example);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return error("ERROR;Interrupted");
+            }
+        }
+
+        /**
+         * Method that marks the answer as not cacheable, so the cache keeps only the tags
+         * @param message Error message
+         * @return The error message
+         */
+        private String error(String message) {
+            setCacheable(false);
+            return message;
+        }
+
     }
 }
@@ -60,6 +60,9 @@ public class RequestTask implements Runnable {
 				} else if (commandData[0].equals("s")) {
 					System.err.println("Status");
 					command = new Command.ConcurrentStatusCommand(commandData, cache);
+				} else if (commandData[0].equals("c")) {
+					System.err.println("Classify");
+					command = new Command.ConcurrentClassifyCommand(commandData);
 				} else if (commandData[0].equals("z")) {
 					System.err.println("Stop");
 					command = new Command.ConcurrentStopCommand(commandData);
@@ -0,0 +1,289 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classifier which runs every call on the execution that has been the fastest so far
+ * under the current load. The load is the number of other calls in flight plus the
+ * active threads of the executor and of the pool. It falls into two levels, idle and
+ * busy, and the single queries and the batches are measured apart.
+ * <p>
+ * For every (call kind, load level, strategy) the classifier keeps a moving average of
+ * the latency per example. A strategy without a measure is tried first, and one call in
+ * {@link #EXPLORATION_INTERVAL} runs another strategy, so the averages follow the
+ * changes of the load. The fine-grained classifier is not a candidate: a task per
+ * row never wins. All the strategies are exact, keep the same rows on equal distances
+ * and vote with {@link TrainingSet#vote(KNearest)}, so they return the same tags.
+ */
+public class AdaptiveKnnClassifier implements KnnClassifier {
+
+    public enum Strategy {
+        SERIAL, COARSE_GRAINED, FORK_JOIN, INDEXED
+    }
+
+    private static final Strategy[] STRATEGIES = Strategy.values();
+
+    /**
+     * Training sets smaller than this are always scanned serially
+     */
+    static final int SERIAL_THRESHOLD = 4096;
+
+    /**
+     * Weight of the newest latency in the moving averages
+     */
+    static final double ALPHA = 0.1;
+
+    /**
+     * One call in this many runs another strategy than the fastest one
+     */
+    static final int EXPLORATION_INTERVAL = 64;
+
+    static final int IDLE = 0, BUSY = 1;
+
+    private static final int LOAD_LEVELS = 2;
+
+    private static final int SINGLE = 0, BATCH = 1;
+
+    private TrainingSet trainingSet;
+
+    private ExecutorService executor;
+
+    private ForkJoinPool pool;
+
+    private KnnClassifier[] classifiers = new KnnClassifier[STRATEGIES.length];
+
+    private int cores = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Moving averages of the nanoseconds per example, stored as double bits, NaN until measured
+     */
+    private final AtomicLongArray latencies = new AtomicLongArray(2 * LOAD_LEVELS * STRATEGIES.length);
+
+    private final LongAdder[] counts = new LongAdder[STRATEGIES.length];
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong calls = new AtomicLong();
+
+    public AdaptiveKnnClassifier(List<? extends Sample> dataSet, int k, ExecutorService executor, ForkJoinPool pool) {
+        this(new TrainingSet(dataSet), k, executor, pool);
+    }
+
+    /**
+     * @param executor the executor of the coarse-grained tasks
+     * @param pool the pool of the fork/join tasks, the common pool if null
+     */
+    public AdaptiveKnnClassifier(TrainingSet trainingSet, int k, ExecutorService executor, ForkJoinPool pool) {
+        Objects.requireNonNull(trainingSet);
+        Objects.requireNonNull(executor);
+
+        this.trainingSet = trainingSet;
+        this.executor = executor;
+        this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+
+        classifiers[Strategy.SERIAL.ordinal()] = new KnnSerialClassifier(trainingSet, k);
+        classifiers[Strategy.COARSE_GRAINED.ordinal()] = new KnnCoarseGrainedClassifier(trainingSet, k, executor);
+        classifiers[Strategy.FORK_JOIN.ordinal()] = new KnnForkJoinClassifier(trainingSet, k, this.pool);
+        classifiers[Strategy.INDEXED.ordinal()] = new KnnKdTreeClassifier(KdTree.build(trainingSet), k);
+
+        for (int i = 0; i < latencies.length(); i++) {
+            latencies.set(i, Double.doubleToLongBits(Double.NaN));
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public String classify(Sample example) throws InterruptedException {
+        inFlight.incrementAndGet();
+        try {
+            int level = loadLevel();
+            Strategy strategy = choose(SINGLE, level);
+
+            long start = System.nanoTime();
+            String tag = classifiers[strategy.ordinal()].classify(example);
+            record(SINGLE, level, strategy, System.nanoTime() - start);
+
+            return tag;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public List<String> classifyAll(List<? extends Sample> examples) throws InterruptedException {
+        if (examples.isEmpty()) {
+            return new ArrayList<>();
+        }
+        inFlight.incrementAndGet();
+        try {
+            int level = loadLevel();
+            Strategy strategy = choose(BATCH, level);
+
+            long start = System.nanoTime();
+            List<String> tags = classifiers[strategy.ordinal()].classifyAll(examples);
+            record(BATCH, level, strategy, (System.nanoTime() - start) / examples.size());
+
+            return tags;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private int loadLevel() {
+        int busy = inFlight.get() - 1 + pool.getActiveThreadCount();
+        if (executor instanceof ThreadPoolExecutor) {
+            busy += ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return 2 * busy < cores ? IDLE : BUSY;
+    }
+
+    private Strategy choose(int kind, int level) {
+        if (trainingSet.size() < SERIAL_THRESHOLD) {
+            return Strategy.SERIAL;
+        }
+
+        for (Strategy strategy : STRATEGIES) {
+            if (Double.isNaN(latency(kind, level, strategy))) {
+                return strategy;
+            }
+        }
+
+        long call = calls.getAndIncrement();
+        if (call % EXPLORATION_INTERVAL == EXPLORATION_INTERVAL - 1) {
+            return STRATEGIES[(int) (call / EXPLORATION_INTERVAL % STRATEGIES.length)];
+        }
+
+        Strategy best = STRATEGIES[0];
+        for (Strategy strategy : STRATEGIES) {
+            if (latency(kind, level, strategy) < latency(kind, level, best)) {
+                best = strategy;
+            }
+        }
+        return best;
+    }
+
+    private void record(int kind, int level, Strategy strategy, long nanos) {
+        counts[strategy.ordinal()].increment();
+
+        int i = slot(kind, level, strategy);
+        long current, next;
+        do {
+            current = latencies.get(i);
+            double average = Double.longBitsToDouble(current);
+            next = Double.doubleToLongBits(Double.isNaN(average) ? nanos : average + ALPHA * (nanos - average));
+        } while (!latencies.compareAndSet(i, current, next));
+    }
+
+    private int slot(int kind, int level, Strategy strategy) {
+        return (kind * LOAD_LEVELS + level) * STRATEGIES.length + strategy.ordinal();
+    }
+
+    private double latency(int kind, int level, Strategy strategy) {
+        return Double.longBitsToDouble(latencies.get(slot(kind, level, strategy)));
+    }
+
+    /**
+     * Number of calls run on the strategy
+     */
+    public long getCount(Strategy strategy) {
+        return counts[strategy.ordinal()].sum();
+    }
+
+    /**
+     * Moving average of the nanoseconds per example of the strategy, NaN if it was never measured
+     * @param batch the average of {@link #classifyAll(List)} instead of {@link #classify(Sample)}
+     * @param level {@link #IDLE} or {@link #BUSY}
+     */
+    public double getLatency(Strategy strategy, boolean batch, int level) {
+        return latency(batch ? BATCH : SINGLE, level, strategy);
+    }
+
+    /**
+     * Classifies the test set in a few big batches from one thread, then with many
+     * threads sending single queries, and shows where the calls went
+     */
+    public static void main(String[] args) throws URISyntaxException, InterruptedException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int clients = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        AdaptiveKnnClassifier classifier = new AdaptiveKnnClassifier(train, k, executor, null);
+
+        int success = 0, mistakes = 0;
+
+        Date start = new Date();
+        for (int round = 0; round < rounds; round++) {
+            List<String> tags = classifier.classifyAll(test);
+            if (round == rounds - 1) {
+                for (int i = 0; i < tags.size(); i++) {
+                    if (tags.get(i).equals(test.get(i).getTag())) {
+                        success++;
+                    } else {
+                        mistakes++;
+                    }
+                }
+            }
+        }
+        Date end = new Date();
+        double batchTime = end.getTime() - start.getTime();
+
+        ExecutorService clientPool = Executors.newFixedThreadPool(clients);
+        start = new Date();
+        for (int c = 0; c < clients; c++) {
+            clientPool.execute(() -> {
+                try {
+                    for (int round = 0; round < rounds; round++) {
+                        for (BankMarketing example : test) {
+                            classifier.classify(example);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        clientPool.shutdown();
+        clientPool.awaitTermination(1, TimeUnit.HOURS);
+        end = new Date();
+        double peakTime = end.getTime() - start.getTime();
+
+        executor.shutdown();
+
+        System.out.println("******************************************");
+        System.out.println("Adaptive Classifier - K: " + k);
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Batches: " + rounds + " x " + test.size() + " in " + (batchTime / 1000) + " seconds.");
+        System.out.println("Queries: " + clients + " clients x " + rounds * test.size() + " in " + (peakTime / 1000) + " seconds.");
+        for (Strategy strategy : STRATEGIES) {
+            System.out.printf("%-15s calls: %6d, ns per example single idle/busy: %.0f / %.0f, batch idle/busy: %.0f / %.0f%n",
+                    strategy, classifier.getCount(strategy),
+                    classifier.getLatency(strategy, false, IDLE), classifier.getLatency(strategy, false, BUSY),
+                    classifier.getLatency(strategy, true, IDLE), classifier.getLatency(strategy, true, BUSY));
+        }
+        System.out.println("******************************************");
+    }
+}
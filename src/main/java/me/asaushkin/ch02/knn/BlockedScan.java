@@ -0,0 +1,122 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.util.List;
+
+/**
+ * Batch scan which tiles queries x training rows, so a block of training rows is
+ * loaded once and scored against a whole block of queries while it is hot in the cache.
+ */
+final class BlockedScan {
+
+    /**
+     * Number of queries scored against every block of training rows
+     */
+    static final int QUERY_BLOCK = 32;
+
+    /**
+     * Target size in bytes of a block of training rows
+     */
+    static final int ROW_BLOCK_BYTES = 64 * 1024;
+
+    private final TrainingSet trainingSet;
+
+    private final int k;
+
+    private final boolean normExpansion;
+
+    private final int rowBlock;
+
+    BlockedScan(TrainingSet trainingSet, int k, boolean normExpansion) {
+        this.trainingSet = trainingSet;
+        this.k = k;
+        this.normExpansion = normExpansion && trainingSet.metric() == DistanceMetrics.EUCLIDEAN;
+        this.rowBlock = Math.max(16, ROW_BLOCK_BYTES / (Double.BYTES * Math.max(1, trainingSet.dimension())));
+    }
+
+    double[][] toQueries(List<? extends Sample> examples) {
+        double[][] queries = new double[examples.size()][];
+        for (int q = 0; q < queries.length; q++) {
+            queries[q] = trainingSet.toQuery(examples.get(q));
+        }
+        return queries;
+    }
+
+    int blockCount(int queryCount) {
+        return (queryCount + QUERY_BLOCK - 1) / QUERY_BLOCK;
+    }
+
+    /**
+     * Classifies the queries of one block and stores the tags in the result array
+     */
+    void classifyBlock(double[][] queries, int block, String[] result) {
+        int from = block * QUERY_BLOCK;
+        int to = Math.min(queries.length, from + QUERY_BLOCK);
+
+        KNearest[] nearest = new KNearest[to - from];
+        for (int q = 0; q < nearest.length; q++) {
+            nearest[q] = new KNearest(k);
+        }
+
+        if (normExpansion)
+            scanExpanded(queries, from, to, nearest);
+        else
+            scan(queries, from, to, nearest);
+
+        for (int q = from; q < to; q++) {
+            result[q] = trainingSet.vote(nearest[q - from]);
+        }
+    }
+
+    private void scan(double[][] queries, int from, int to, KNearest[] nearest) {
+        int size = trainingSet.size();
+        for (int rowStart = 0; rowStart < size; rowStart += rowBlock) {
+            int rowEnd = Math.min(size, rowStart + rowBlock);
+            for (int q = from; q < to; q++) {
+                double[] query = queries[q];
+                KNearest heap = nearest[q - from];
+                trainingSet.scan(query, rowStart, rowEnd, heap);
+            }
+        }
+    }
+
+    /**
+     * Uses ||a||^2 + ||b||^2 - 2a.b with the precomputed norms of the training rows. It
+     * replaces the subtraction per dimension with a dot product, but it rounds differently,
+     * so rows at almost the same distance may be ordered differently than in {@link #scan}.
+     */
+    private void scanExpanded(double[][] queries, int from, int to, KNearest[] nearest) {
+        int size = trainingSet.size();
+        int dimension = trainingSet.dimension();
+        double[] features = trainingSet.features();
+        double[] rowNorms = trainingSet.squaredNorms();
+
+        double[] queryNorms = new double[to - from];
+        for (int q = from; q < to; q++) {
+            double sum = 0.0d;
+            for (double value : queries[q]) {
+                sum += value * value;
+            }
+            queryNorms[q - from] = sum;
+        }
+
+        for (int rowStart = 0; rowStart < size; rowStart += rowBlock) {
+            int rowEnd = Math.min(size, rowStart + rowBlock);
+            for (int q = from; q < to; q++) {
+                double[] query = queries[q];
+                double queryNorm = queryNorms[q - from];
+                KNearest heap = nearest[q - from];
+                for (int row = rowStart; row < rowEnd; row++) {
+                    int offset = row * dimension;
+                    double dot = 0.0d;
+                    for (int i = 0; i < dimension; i++) {
+                        dot += features[offset + i] * query[i];
+                    }
+                    double squared = Math.max(0.0d, rowNorms[row] + queryNorm - 2 * dot);
+                    heap.offer(row, Math.sqrt(squared));
+                }
+            }
+        }
+    }
+}
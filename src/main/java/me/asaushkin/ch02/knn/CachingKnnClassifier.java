@@ -0,0 +1,308 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of the results of another classifier. The entries are keyed by the
+ * feature vector of the example: the hash is taken on the features rounded to floats,
+ * and a hit is confirmed by comparing the full vectors, so a cached tag is only returned
+ * for exactly the same features.
+ * <p>
+ * The cache is split in segments selected by the hash, each one an LRU map guarded by
+ * its own lock, so the threads looking up different vectors rarely meet. Every segment
+ * holds an equal share of the capacity, so the cache may evict a little before it is
+ * full. A lookup copies the example into a key kept by the thread and doesn't allocate
+ * on a hit.
+ * <p>
+ * Every entry remembers the version of the training set it was computed on. An entry
+ * of another version is dropped when it is found, so the cache follows a training set
+ * which changes, like an {@link OnlineTrainingSet}. {@link #invalidate()} drops all the
+ * entries at once when the delegate itself is replaced or retrained.
+ */
+public class CachingKnnClassifier implements KnnClassifier {
+
+    static final int SEGMENTS = 16;
+
+    static final int SEGMENT_SHIFT = 32 - Integer.numberOfTrailingZeros(SEGMENTS);
+
+    private final KnnClassifier delegate;
+
+    private final LongSupplier version;
+
+    private final int dimension;
+
+    private final Segment[] segments;
+
+    private final ThreadLocal<Key> probe;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder stale = new LongAdder();
+
+    /**
+     * Caches the results of a classifier whose training set doesn't change
+     */
+    public CachingKnnClassifier(KnnClassifier delegate, int dimension, int capacity) {
+        this(delegate, dimension, capacity, () -> 0L);
+    }
+
+    /**
+     * @param version returns the current version of the training set of the delegate,
+     *                for example {@code () -> onlineTrainingSet.snapshot().version()}
+     */
+    public CachingKnnClassifier(KnnClassifier delegate, int dimension, int capacity, LongSupplier version) {
+        Objects.requireNonNull(delegate);
+        Objects.requireNonNull(version);
+
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Dimension must be positive: " + dimension);
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.delegate = delegate;
+        this.version = version;
+        this.dimension = dimension;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS));
+        }
+        this.probe = ThreadLocal.withInitial(() -> new Key(new double[dimension]));
+    }
+
+    public KnnClassifier getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String classify(Sample example) throws InterruptedException {
+        if (example.getDimension() != dimension) {
+            throw new IllegalArgumentException("Vector doesn't have the same length");
+        }
+        Key key = probe.get();
+        example.copyExample(key.features);
+        key.rehash();
+
+        long current = version.getAsLong();
+        Segment segment = segments[(key.hash * 0x9E3779B9) >>> SEGMENT_SHIFT];
+
+        synchronized (segment) {
+            Result result = segment.get(key);
+            if (result != null) {
+                if (result.version == current) {
+                    hits.increment();
+                    return result.tag;
+                }
+                segment.remove(key);
+                stale.increment();
+            }
+        }
+
+        misses.increment();
+        String tag = delegate.classify(example);
+
+        Key stored = new Key(key.features.clone());
+        stored.hash = key.hash;
+        synchronized (segment) {
+            segment.put(stored, new Result(tag, current));
+        }
+        return tag;
+    }
+
+    /**
+     * Drops all the entries
+     */
+    public void invalidate() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int ret = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                ret += segment.size();
+            }
+        }
+        return ret;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Entries dropped because the training set changed since they were computed
+     */
+    public long getStaleCount() {
+        return stale.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHitCount(), total = hits + getMissCount();
+        return total == 0 ? Double.NaN : (double) hits / total;
+    }
+
+    static final class Key {
+
+        final double[] features;
+
+        int hash;
+
+        Key(double[] features) {
+            this.features = features;
+        }
+
+        /**
+         * Hash of the features rounded to floats, equal vectors always have the same hash
+         */
+        void rehash() {
+            int h = 1;
+            for (double feature : features) {
+                h = 31 * h + Float.floatToIntBits((float) feature);
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && Arrays.equals(features, other.features);
+        }
+    }
+
+    static final class Result {
+
+        final String tag;
+
+        final long version;
+
+        Result(String tag, long version) {
+            this.tag = tag;
+            this.version = version;
+        }
+    }
+
+    /**
+     * LRU map of a segment, access ordered so the least recently used entry is evicted
+     */
+    final class Segment extends LinkedHashMap<Key, Result> {
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Classifies a stream of queries drawn from the test set, where a few examples are much
+     * more frequent than the others, with and without the cache in front of the serial classifier
+     */
+    public static void main(String[] args) throws URISyntaxException, InterruptedException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 4000;
+
+        Random random = new Random(42);
+        List<BankMarketing> traffic = new ArrayList<>(queries);
+        for (int i = 0; i < queries; i++) {
+            // skewed towards the first examples: the index is the minimum of three draws
+            int index = Math.min(random.nextInt(test.size()), Math.min(random.nextInt(test.size()), random.nextInt(test.size())));
+            traffic.add(test.get(index));
+        }
+
+        TrainingSet trainingSet = new TrainingSet(train);
+        KnnSerialClassifier serial = new KnnSerialClassifier(trainingSet, k);
+        CachingKnnClassifier cached = new CachingKnnClassifier(serial, trainingSet.dimension(), capacity);
+
+        long start = System.nanoTime();
+        int serialSuccess = 0;
+        for (BankMarketing example : traffic) {
+            if (serial.classify(example).equals(example.getTag())) {
+                serialSuccess++;
+            }
+        }
+        long serialNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int cachedSuccess = 0;
+        for (BankMarketing example : traffic) {
+            if (cached.classify(example).equals(example.getTag())) {
+                cachedSuccess++;
+            }
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        // every example of the test set fits in the cache, so the last passes only hit
+        CachingKnnClassifier warm = new CachingKnnClassifier(serial, trainingSet.dimension(), 2 * test.size());
+        warm.classifyAll(test);
+        for (int i = 0; i < 200; i++) {
+            warm.classifyAll(test);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            warm.classifyAll(test);
+        }
+        long hitNanos = (System.nanoTime() - start) / (100L * test.size());
+        long warmMisses = warm.getMissCount();
+
+        System.out.println("******************************************");
+        System.out.println("Caching Classifier - K: " + k + ", capacity: " + capacity + ", queries: " + queries);
+        System.out.println("Success without cache: " + serialSuccess + ", with cache: " + cachedSuccess);
+        System.out.println("Hits: " + cached.getHitCount() + ", misses: " + cached.getMissCount() +
+                ", evictions: " + cached.getEvictionCount() + String.format(", hit rate: %.3f", cached.getHitRate()));
+        System.out.println("Time without cache (ms): " + serialNanos / 1_000_000);
+        System.out.println("Time with cache (ms): " + cachedNanos / 1_000_000);
+        System.out.println("Hit (ns): " + hitNanos + ", misses of the warm cache: " + warmMisses);
+        System.out.println("******************************************");
+    }
+}
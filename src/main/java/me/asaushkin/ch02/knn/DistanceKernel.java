@@ -0,0 +1,18 @@
+package me.asaushkin.ch02.knn;
+
+/**
+ * Distance loops over a row of a flat feature array and a query vector.
+ * The implementation is picked once at startup by {@link DistanceKernels}.
+ */
+public interface DistanceKernel {
+
+    /**
+     * Sum of the squared differences between data[offset .. offset + length) and query[0 .. length)
+     */
+    double squaredEuclidean(double[] data, int offset, double[] query, int length);
+
+    /**
+     * Sum of the absolute differences between data[offset .. offset + length) and query[0 .. length)
+     */
+    double manhattan(double[] data, int offset, double[] query, int length);
+}
@@ -0,0 +1,81 @@
+package me.asaushkin.ch02.knn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the distance kernel at runtime. The multi-release jar ships a Vector API
+ * implementation for Java 17+, which is used when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}. Otherwise, or with
+ * {@code -Dknn.kernel=scalar}, the scalar loops are used.
+ */
+public final class DistanceKernels {
+
+    static final Logger logger = LoggerFactory.getLogger(DistanceKernels.class);
+
+    static final String VECTOR_KERNEL = "me.asaushkin.ch02.knn.VectorDistanceKernel";
+
+    private static final DistanceKernel SCALAR = new ScalarDistanceKernel();
+
+    private static final DistanceKernel VECTOR = loadVector();
+
+    private static final DistanceKernel KERNEL =
+            VECTOR != null && !"scalar".equals(System.getProperty("knn.kernel")) ? VECTOR : SCALAR;
+
+    private DistanceKernels() {
+    }
+
+    private static DistanceKernel loadVector() {
+        try {
+            DistanceKernel kernel = (DistanceKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+            logger.debug("Vector API distance kernel is available");
+            return kernel;
+        } catch (ClassNotFoundException | LinkageError e) {
+            logger.debug("Vector API distance kernel is not available: {}", e.toString());
+            return null;
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Can't create the Vector API distance kernel", e);
+            return null;
+        }
+    }
+
+    /**
+     * The kernel used by the training sets
+     */
+    public static DistanceKernel get() {
+        return KERNEL;
+    }
+
+    public static DistanceKernel scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * The Vector API kernel, or null if it is not available in this JVM
+     */
+    public static DistanceKernel vector() {
+        return VECTOR;
+    }
+
+    static final class ScalarDistanceKernel implements DistanceKernel {
+
+        @Override
+        public double squaredEuclidean(double[] data, int offset, double[] query, int length) {
+            double ret = 0.0d;
+            for (int i = 0; i < length; i++) {
+                double diff = data[offset + i] - query[i];
+                ret += diff * diff;
+            }
+            return ret;
+        }
+
+        @Override
+        public double manhattan(double[] data, int offset, double[] query, int length) {
+            double ret = 0.0d;
+            for (int i = 0; i < length; i++) {
+                ret += Math.abs(data[offset + i] - query[i]);
+            }
+            return ret;
+        }
+    }
+}
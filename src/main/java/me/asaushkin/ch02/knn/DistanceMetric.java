@@ -0,0 +1,30 @@
+package me.asaushkin.ch02.knn;
+
+/**
+ * Distance between a row of a flat feature array and a query vector. The implementations
+ * are in {@link DistanceMetrics}.
+ * <p>
+ * Every implementation has its own copy of the scan loop, so the distance inside it is a
+ * call on a final class that the JIT can inline. A classifier pays one virtual call per
+ * range of rows instead of one per row.
+ */
+public interface DistanceMetric {
+
+    /**
+     * Distance between data[offset .. offset + length) and query[0 .. length)
+     */
+    double distance(double[] data, int offset, double[] query, int length);
+
+    /**
+     * Offers the rows in [startIndex, endIndex) of the row-major data to the heap with
+     * their {@link #distance(double[], int, double[], int)}. A row which can't beat the
+     * cutoff of the heap may be skipped before its distance is complete.
+     */
+    void scan(double[] data, int dimension, double[] query, int startIndex, int endIndex, KNearest nearest);
+
+    /**
+     * Lower bound of the distance between two vectors whose values in the column differ by
+     * diff, used to prune the branches of a {@link KdTree}. 0 means no bound is known.
+     */
+    double lowerBound(int column, double diff);
+}
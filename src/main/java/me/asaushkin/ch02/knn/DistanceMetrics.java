@@ -0,0 +1,298 @@
+package me.asaushkin.ch02.knn;
+
+import java.util.Objects;
+
+/**
+ * The distance metrics which can be given to a {@link TrainingSet}
+ */
+public final class DistanceMetrics {
+
+    private static final DistanceKernel KERNEL = DistanceKernels.get();
+
+    /**
+     * Euclidean distance, the default of a training set
+     */
+    public static final DistanceMetric EUCLIDEAN = new Euclidean();
+
+    /**
+     * Squared euclidean distance, it ranks the rows like {@link #EUCLIDEAN} without the square root
+     */
+    public static final DistanceMetric SQUARED_EUCLIDEAN = new SquaredEuclidean();
+
+    public static final DistanceMetric MANHATTAN = new Manhattan();
+
+    public static final DistanceMetric CHEBYSHEV = new Chebyshev();
+
+    /**
+     * One minus the cosine of the angle between the vectors. A zero vector is at distance 1 from everything.
+     */
+    public static final DistanceMetric COSINE = new Cosine();
+
+    private DistanceMetrics() {
+    }
+
+    /**
+     * Euclidean distance with a weight for the squared difference of every column
+     */
+    public static DistanceMetric weighted(double[] weights) {
+        Objects.requireNonNull(weights);
+        for (double weight : weights) {
+            if (!(weight >= 0)) {
+                throw new IllegalArgumentException("Weights must not be negative: " + weight);
+            }
+        }
+        return new WeightedEuclidean(weights.clone());
+    }
+
+    /**
+     * Returns the metric with the name, in any case: euclidean, squared_euclidean,
+     * manhattan, chebyshev or cosine
+     */
+    public static DistanceMetric forName(String name) {
+        switch (name.toLowerCase()) {
+            case "euclidean":
+                return EUCLIDEAN;
+            case "squared_euclidean":
+                return SQUARED_EUCLIDEAN;
+            case "manhattan":
+                return MANHATTAN;
+            case "chebyshev":
+                return CHEBYSHEV;
+            case "cosine":
+                return COSINE;
+            default:
+                throw new IllegalArgumentException("Unknown distance metric: " + name);
+        }
+    }
+
+    static final class Euclidean implements DistanceMetric {
+
+        @Override
+        public double distance(double[] data, int offset, double[] query, int length) {
+            return Math.sqrt(KERNEL.squaredEuclidean(data, offset, query, length));
+        }
+
+        @Override
+        public void scan(double[] data, int dimension, double[] query, int startIndex, int endIndex, KNearest nearest) {
+            for (int row = startIndex; row < endIndex; row++) {
+                int offset = row * dimension;
+                double cutoff = nearest.cutoff();
+                double bound = cutoff * cutoff * TrainingSet.ABANDON_SLACK;
+                double sum = 0.0d;
+                for (int i = 0; i < dimension && sum <= bound; i++) {
+                    double diff = data[offset + i] - query[i];
+                    sum += diff * diff;
+                }
+                if (sum <= bound) {
+                    nearest.offer(row, distance(data, offset, query, dimension));
+                }
+            }
+        }
+
+        @Override
+        public double lowerBound(int column, double diff) {
+            return Math.abs(diff);
+        }
+
+        @Override
+        public String toString() {
+            return "euclidean";
+        }
+    }
+
+    static final class SquaredEuclidean implements DistanceMetric {
+
+        @Override
+        public double distance(double[] data, int offset, double[] query, int length) {
+            return KERNEL.squaredEuclidean(data, offset, query, length);
+        }
+
+        @Override
+        public void scan(double[] data, int dimension, double[] query, int startIndex, int endIndex, KNearest nearest) {
+            for (int row = startIndex; row < endIndex; row++) {
+                int offset = row * dimension;
+                double bound = nearest.cutoff() * TrainingSet.ABANDON_SLACK;
+                double sum = 0.0d;
+                for (int i = 0; i < dimension && sum <= bound; i++) {
+                    double diff = data[offset + i] - query[i];
+                    sum += diff * diff;
+                }
+                if (sum <= bound) {
+                    nearest.offer(row, distance(data, offset, query, dimension));
+                }
+            }
+        }
+
+        @Override
+        public double lowerBound(int column, double diff) {
+            return diff * diff;
+        }
+
+        @Override
+        public String toString() {
+            return "squared_euclidean";
+        }
+    }
+
+    static final class Manhattan implements DistanceMetric {
+
+        @Override
+        public double distance(double[] data, int offset, double[] query, int length) {
+            return KERNEL.manhattan(data, offset, query, length);
+        }
+
+        @Override
+        public void scan(double[] data, int dimension, double[] query, int startIndex, int endIndex, KNearest nearest) {
+            for (int row = startIndex; row < endIndex; row++) {
+                int offset = row * dimension;
+                double bound = nearest.cutoff() * TrainingSet.ABANDON_SLACK;
+                double sum = 0.0d;
+                for (int i = 0; i < dimension && sum <= bound; i++) {
+                    sum += Math.abs(data[offset + i] - query[i]);
+                }
+                if (sum <= bound) {
+                    nearest.offer(row, distance(data, offset, query, dimension));
+                }
+            }
+        }
+
+        @Override
+        public double lowerBound(int column, double diff) {
+            return Math.abs(diff);
+        }
+
+        @Override
+        public String toString() {
+            return "manhattan";
+        }
+    }
+
+    static final class Chebyshev implements DistanceMetric {
+
+        @Override
+        public double distance(double[] data, int offset, double[] query, int length) {
+            double ret = 0.0d;
+            for (int i = 0; i < length; i++) {
+                ret = Math.max(ret, Math.abs(data[offset + i] - query[i]));
+            }
+            return ret;
+        }
+
+        @Override
+        public void scan(double[] data, int dimension, double[] query, int startIndex, int endIndex, KNearest nearest) {
+            for (int row = startIndex; row < endIndex; row++) {
+                int offset = row * dimension;
+                double cutoff = nearest.cutoff();
+                double ret = 0.0d;
+                for (int i = 0; i < dimension && ret <= cutoff; i++) {
+                    ret = Math.max(ret, Math.abs(data[offset + i] - query[i]));
+                }
+                if (ret <= cutoff) {
+                    nearest.offer(row, ret);
+                }
+            }
+        }
+
+        @Override
+        public double lowerBound(int column, double diff) {
+            return Math.abs(diff);
+        }
+
+        @Override
+        public String toString() {
+            return "chebyshev";
+        }
+    }
+
+    static final class Cosine implements DistanceMetric {
+
+        @Override
+        public double distance(double[] data, int offset, double[] query, int length) {
+            double dot = 0.0d, dataNorm = 0.0d, queryNorm = 0.0d;
+            for (int i = 0; i < length; i++) {
+                double value = data[offset + i];
+                dot += value * query[i];
+                dataNorm += value * value;
+                queryNorm += query[i] * query[i];
+            }
+            if (dataNorm == 0.0d || queryNorm == 0.0d) {
+                return 1.0d;
+            }
+            return 1.0d - dot / Math.sqrt(dataNorm * queryNorm);
+        }
+
+        @Override
+        public void scan(double[] data, int dimension, double[] query, int startIndex, int endIndex, KNearest nearest) {
+            for (int row = startIndex; row < endIndex; row++) {
+                double distance = distance(data, row * dimension, query, dimension);
+                if (distance <= nearest.cutoff()) {
+                    nearest.offer(row, distance);
+                }
+            }
+        }
+
+        @Override
+        public double lowerBound(int column, double diff) {
+            return 0.0d;
+        }
+
+        @Override
+        public String toString() {
+            return "cosine";
+        }
+    }
+
+    static final class WeightedEuclidean implements DistanceMetric {
+
+        private final double[] weights;
+
+        WeightedEuclidean(double[] weights) {
+            this.weights = weights;
+        }
+
+        @Override
+        public double distance(double[] data, int offset, double[] query, int length) {
+            checkLength(length);
+            double ret = 0.0d;
+            for (int i = 0; i < length; i++) {
+                double diff = data[offset + i] - query[i];
+                ret += weights[i] * diff * diff;
+            }
+            return Math.sqrt(ret);
+        }
+
+        @Override
+        public void scan(double[] data, int dimension, double[] query, int startIndex, int endIndex, KNearest nearest) {
+            checkLength(dimension);
+            for (int row = startIndex; row < endIndex; row++) {
+                int offset = row * dimension;
+                double cutoff = nearest.cutoff();
+                double bound = cutoff * cutoff;
+                double sum = 0.0d;
+                for (int i = 0; i < dimension && sum <= bound; i++) {
+                    double diff = data[offset + i] - query[i];
+                    sum += weights[i] * diff * diff;
+                }
+                if (sum <= bound) {
+                    nearest.offer(row, Math.sqrt(sum));
+                }
+            }
+        }
+
+        private void checkLength(int length) {
+            if (length != weights.length) {
+                throw new IllegalArgumentException("Weights don't have the same length");
+            }
+        }
+
+        @Override
+        public double lowerBound(int column, double diff) {
+            return Math.sqrt(weights[column]) * Math.abs(diff);
+        }
+
+        @Override
+        public String toString() {
+            return "weighted_euclidean";
+        }
+    }
+}
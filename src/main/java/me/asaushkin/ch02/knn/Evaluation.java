@@ -0,0 +1,126 @@
+package me.asaushkin.ch02.knn;
+
+import java.util.Arrays;
+
+/**
+ * Result of an {@link Evaluator} run: the confusion matrix of the predictions, the
+ * time spent building the classifiers, the wall time of the classifications and the
+ * latency of every classification
+ */
+public final class Evaluation {
+
+    private final String name;
+
+    private final String[] tags;
+
+    /**
+     * confusion[actual][predicted], indexed like the tags
+     */
+    private final int[][] confusion;
+
+    private final long[] latencies;
+
+    private final long buildNanos;
+
+    private final long wallNanos;
+
+    Evaluation(String name, String[] tags, int[][] confusion, long[] latencies, long buildNanos, long wallNanos) {
+        this.name = name;
+        this.tags = tags;
+        this.confusion = confusion;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+        this.buildNanos = buildNanos;
+        this.wallNanos = wallNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getTotal() {
+        return latencies.length;
+    }
+
+    public int getCorrect() {
+        int ret = 0;
+        for (int i = 0; i < tags.length; i++) {
+            ret += confusion[i][i];
+        }
+        return ret;
+    }
+
+    public double getAccuracy() {
+        return latencies.length == 0 ? Double.NaN : (double) getCorrect() / latencies.length;
+    }
+
+    public String[] getTags() {
+        return tags.clone();
+    }
+
+    /**
+     * Number of examples with the actual tag which were classified with the predicted tag
+     */
+    public int getConfusion(String actual, String predicted) {
+        int a = Arrays.binarySearch(tags, actual), p = Arrays.binarySearch(tags, predicted);
+        return a < 0 || p < 0 ? 0 : confusion[a][p];
+    }
+
+    /**
+     * Nanoseconds spent building the training sets and the classifiers, not part of the throughput
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    /**
+     * Classifications per second of wall time
+     */
+    public double getThroughput() {
+        return wallNanos == 0 ? Double.NaN : latencies.length / (wallNanos / 1_000_000_000d);
+    }
+
+    /**
+     * Latency in nanoseconds below which the given percentage of the classifications ran,
+     * with the nearest rank method
+     */
+    public long getLatencyPercentile(double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+        return latencies[Math.min(latencies.length, Math.max(1, rank)) - 1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder();
+        ret.append(name).append('\n');
+        ret.append("Success: ").append(getCorrect()).append('\n');
+        ret.append("Mistakes: ").append(getTotal() - getCorrect()).append('\n');
+        ret.append(String.format("Accuracy: %.4f%n", getAccuracy()));
+        ret.append(String.format("Build time: %.1f ms%n", buildNanos / 1_000_000d));
+        ret.append(String.format("Throughput: %.0f classifications/sec%n", getThroughput()));
+        ret.append(String.format("Latency us p50: %.1f, p90: %.1f, p99: %.1f, max: %.1f%n",
+                getLatencyPercentile(50) / 1000d, getLatencyPercentile(90) / 1000d,
+                getLatencyPercentile(99) / 1000d, getLatencyPercentile(100) / 1000d));
+        ret.append("Confusion (rows actual, columns predicted):\n");
+        int width = 8;
+        for (String tag : tags) {
+            width = Math.max(width, tag.length() + 1);
+        }
+        ret.append(String.format("%" + width + "s", ""));
+        for (String tag : tags) {
+            ret.append(String.format("%" + width + "s", tag));
+        }
+        ret.append('\n');
+        for (int a = 0; a < tags.length; a++) {
+            ret.append(String.format("%" + width + "s", tags[a]));
+            for (int p = 0; p < tags.length; p++) {
+                ret.append(String.format("%" + width + "d", confusion[a][p]));
+            }
+            ret.append('\n');
+        }
+        return ret.toString();
+    }
+}
@@ -0,0 +1,319 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Validation of classifiers with hold-out, k-fold and leave-one-out. The queries of a run
+ * are spread over the threads of the executor: every worker claims blocks of queries
+ * from a shared counter and writes the prediction and the latency of each query in its
+ * own slot of the result arrays, so the workers share nothing else.
+ * <p>
+ * A classifier is built once per fold and used by all the workers, so it must be safe to
+ * classify from many threads, as the classifiers of this package are. The time spent
+ * building the classifiers is reported apart from the wall time of the classifications.
+ */
+public final class Evaluator {
+
+    /**
+     * Queries claimed by a worker at a time
+     */
+    static final int QUERY_BLOCK = 16;
+
+    private final ExecutorService executor;
+
+    private final int workers;
+
+    public Evaluator(ExecutorService executor) {
+        this(executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Evaluator(ExecutorService executor, int workers) {
+        Objects.requireNonNull(executor);
+
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Workers must be positive: " + workers);
+        }
+        this.executor = executor;
+        this.workers = workers;
+    }
+
+    /**
+     * Trains on one list and classifies the other
+     */
+    public Evaluation holdOut(Function<TrainingSet, ? extends KnnClassifier> factory,
+                              List<? extends Sample> train, List<? extends Sample> test) throws InterruptedException {
+        String[] tags = tagsOf(train, test);
+        int[] predicted = new int[test.size()];
+        long[] latencies = new long[test.size()];
+
+        long buildStart = System.nanoTime();
+        KnnClassifier classifier = factory.apply(new TrainingSet(train));
+        long buildNanos = System.nanoTime() - buildStart;
+
+        long start = System.nanoTime();
+        run(test.size(), q -> predicted[q] = classify(classifier, test.get(q), tags), latencies);
+        long wallNanos = System.nanoTime() - start;
+
+        return new Evaluation("Hold-out, train: " + train.size() + ", test: " + test.size(),
+                tags, confusion(tags, test, predicted), latencies, buildNanos, wallNanos);
+    }
+
+    /**
+     * Splits the shuffled data set in folds, and classifies every fold with a classifier
+     * trained on the other ones
+     */
+    public Evaluation kFold(Function<TrainingSet, ? extends KnnClassifier> factory,
+                            List<? extends Sample> dataSet, int folds, long seed) throws InterruptedException {
+        if (folds < 2 || folds > dataSet.size()) {
+            throw new IllegalArgumentException("Wrong number of folds: " + folds);
+        }
+
+        String[] tags = tagsOf(dataSet);
+        List<Sample> shuffled = new ArrayList<>(dataSet);
+        Collections.shuffle(shuffled, new Random(seed));
+
+        int[] predicted = new int[shuffled.size()];
+        long[] latencies = new long[shuffled.size()];
+
+        long buildNanos = 0, wallNanos = 0;
+        for (int fold = 0; fold < folds; fold++) {
+            int from = (int) ((long) shuffled.size() * fold / folds);
+            int to = (int) ((long) shuffled.size() * (fold + 1) / folds);
+
+            List<Sample> train = new ArrayList<>(shuffled.size() - (to - from));
+            train.addAll(shuffled.subList(0, from));
+            train.addAll(shuffled.subList(to, shuffled.size()));
+            List<Sample> test = shuffled.subList(from, to);
+
+            long buildStart = System.nanoTime();
+            KnnClassifier classifier = factory.apply(new TrainingSet(train));
+            buildNanos += System.nanoTime() - buildStart;
+
+            int[] foldPredicted = new int[test.size()];
+            long[] foldLatencies = new long[test.size()];
+            long start = System.nanoTime();
+            run(test.size(), q -> foldPredicted[q] = classify(classifier, test.get(q), tags), foldLatencies);
+            wallNanos += System.nanoTime() - start;
+
+            System.arraycopy(foldPredicted, 0, predicted, from, foldPredicted.length);
+            System.arraycopy(foldLatencies, 0, latencies, from, foldLatencies.length);
+        }
+
+        return new Evaluation(folds + "-fold, data: " + shuffled.size(),
+                tags, confusion(tags, shuffled, predicted), latencies, buildNanos, wallNanos);
+    }
+
+    /**
+     * Classifies every row with the other rows of the training set, see
+     * {@link #sweepLeaveOneOut(TrainingSet, int...)}
+     */
+    public Evaluation leaveOneOut(TrainingSet trainingSet, int k) throws InterruptedException {
+        return sweepLeaveOneOut(trainingSet, k)[0];
+    }
+
+    /**
+     * Hold-out validation for several values of k with one neighbour pass per query,
+     * see {@link KSweep}. Returns an evaluation for every k in ascending order of k, all of
+     * them with the latencies and the wall time of the single pass.
+     */
+    public Evaluation[] sweepHoldOut(List<? extends Sample> train, List<? extends Sample> test,
+                                     int... ks) throws InterruptedException {
+        String[] tags = tagsOf(train, test);
+        long buildStart = System.nanoTime();
+        KSweep sweep = new KSweep(new TrainingSet(train), ks);
+        long buildNanos = System.nanoTime() - buildStart;
+        TrainingSet trainingSet = sweep.getTrainingSet();
+        int[] values = sweep.ks();
+        int[][] predicted = new int[values.length][test.size()];
+        long[] latencies = new long[test.size()];
+
+        long start = System.nanoTime();
+        run(test.size(), q -> {
+            int[] ordinals = new int[values.length];
+            sweep.predict(trainingSet.toQuery(test.get(q)), -1, ordinals);
+            for (int i = 0; i < values.length; i++) {
+                predicted[i][q] = Arrays.binarySearch(tags, trainingSet.tagName(ordinals[i]));
+            }
+        }, latencies);
+        long wallNanos = System.nanoTime() - start;
+
+        Evaluation[] ret = new Evaluation[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ret[i] = new Evaluation("Hold-out, k: " + values[i] + ", train: " + train.size() + ", test: " + test.size(),
+                    tags, confusion(tags, test, predicted[i]), latencies, buildNanos, wallNanos);
+        }
+        return ret;
+    }
+
+    /**
+     * Classifies every row with the other rows of the training set, for several values of
+     * k. Instead of a training set per row, every row is scanned against the whole set for
+     * one more neighbour than the largest k and the row itself is left out, which gives the
+     * neighbours of a set without the row.
+     */
+    public Evaluation[] sweepLeaveOneOut(TrainingSet trainingSet, int... ks) throws InterruptedException {
+        int size = trainingSet.size();
+        int dimension = trainingSet.dimension();
+        String[] tags = new String[trainingSet.tagCount()];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = trainingSet.tagName(i);
+        }
+
+        long buildStart = System.nanoTime();
+        KSweep sweep = new KSweep(trainingSet, ks);
+        long buildNanos = System.nanoTime() - buildStart;
+        int[] values = sweep.ks();
+        int[][] predicted = new int[values.length][size];
+        long[] latencies = new long[size];
+
+        long start = System.nanoTime();
+        run(size, row -> {
+            double[] query = new double[dimension];
+            for (int i = 0; i < dimension; i++) {
+                query[i] = trainingSet.getFeature(row, i);
+            }
+            int[] ordinals = new int[values.length];
+            sweep.predict(query, row, ordinals);
+            for (int i = 0; i < values.length; i++) {
+                predicted[i][row] = ordinals[i];
+            }
+        }, latencies);
+        long wallNanos = System.nanoTime() - start;
+
+        Evaluation[] ret = new Evaluation[values.length];
+        for (int i = 0; i < values.length; i++) {
+            int[][] confusion = new int[tags.length][tags.length];
+            for (int row = 0; row < size; row++) {
+                confusion[trainingSet.tagOf(row)][predicted[i][row]]++;
+            }
+            ret[i] = new Evaluation("Leave-one-out, k: " + values[i] + ", data: " + size,
+                    tags, confusion, latencies, buildNanos, wallNanos);
+        }
+        return ret;
+    }
+
+    interface Query {
+        /**
+         * Classifies the query and stores its prediction
+         */
+        void run(int query) throws InterruptedException;
+    }
+
+    private static int classify(KnnClassifier classifier, Sample example, String[] tags) throws InterruptedException {
+        return Arrays.binarySearch(tags, classifier.classify(example));
+    }
+
+    /**
+     * Runs the queries [0, count) on the workers, storing the latency of every query
+     */
+    private void run(int count, Query query, long[] latencies) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int tasks = Math.min(workers, (count + QUERY_BLOCK - 1) / QUERY_BLOCK);
+        CountDownLatch endController = new CountDownLatch(tasks);
+
+        for (int w = 0; w < tasks; w++) {
+            executor.execute(() -> {
+                try {
+                    int from;
+                    while (failure.get() == null && (from = next.getAndAdd(QUERY_BLOCK)) < count) {
+                        for (int q = from; q < Math.min(count, from + QUERY_BLOCK); q++) {
+                            long start = System.nanoTime();
+                            query.run(q);
+                            latencies[q] = System.nanoTime() - start;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    endController.countDown();
+                }
+            });
+        }
+
+        endController.await();
+
+        Throwable e = failure.get();
+        if (e instanceof InterruptedException) {
+            throw (InterruptedException) e;
+        } else if (e != null) {
+            throw new IllegalStateException("The evaluation failed", e);
+        }
+    }
+
+    @SafeVarargs
+    private static String[] tagsOf(List<? extends Sample>... dataSets) {
+        TreeSet<String> names = new TreeSet<>();
+        for (List<? extends Sample> dataSet : dataSets) {
+            for (Sample sample : dataSet) {
+                names.add(sample.getTag());
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    private static int[][] confusion(String[] tags, List<? extends Sample> examples, int[] predicted) {
+        int[][] confusion = new int[tags.length][tags.length];
+        for (int i = 0; i < predicted.length; i++) {
+            confusion[Arrays.binarySearch(tags, examples.get(i).getTag())][predicted[i]]++;
+        }
+        return confusion;
+    }
+
+    public static void main(String[] args) throws URISyntaxException, InterruptedException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        int folds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        int neighbours = k;
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            Evaluator evaluator = new Evaluator(executor);
+
+            System.out.println("******************************************");
+            System.out.print(evaluator.holdOut(ts -> new KnnSerialClassifier(ts, neighbours), train, test));
+            System.out.println("******************************************");
+            System.out.print(evaluator.kFold(ts -> new KnnSerialClassifier(ts, neighbours), train, folds, 42));
+            System.out.println("******************************************");
+            System.out.print(evaluator.leaveOneOut(new TrainingSet(train), k));
+            System.out.println("******************************************");
+
+            int[] ks = {1, 3, 5, 7, 10, 15, 20, 30, 50};
+            Evaluation[] sweep = evaluator.sweepHoldOut(train, test, ks);
+            System.out.println("Hold-out sweep, one pass for " + ks.length + " values of k: " +
+                    String.format("%.0f classifications/sec", sweep[0].getThroughput()));
+            for (Evaluation evaluation : sweep) {
+                System.out.println(String.format("%-45s accuracy: %.4f", evaluation.getName(), evaluation.getAccuracy()));
+            }
+            System.out.println("******************************************");
+            sweep = evaluator.sweepLeaveOneOut(new TrainingSet(train), ks);
+            for (Evaluation evaluation : sweep) {
+                System.out.println(String.format("%-45s accuracy: %.4f", evaluation.getName(), evaluation.getAccuracy()));
+            }
+            System.out.println("******************************************");
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package me.asaushkin.ch02.knn;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical navigable small world graph over the rows of a training set,
+ * for approximate nearest neighbour search.
+ *
+ * Rows can be inserted from many threads: every node guards its neighbour lists
+ * with its own lock and the entry point is replaced under a global lock only when
+ * a node with a higher level arrives. Searches don't take locks: the neighbour lists
+ * are copied on write and published through atomic arrays, so a search running next
+ * to an insert may only see a list which is one update behind.
+ */
+public final class HnswIndex {
+
+    private final TrainingSet trainingSet;
+
+    /**
+     * Max number of neighbours per node on the upper levels, the base level keeps 2 * m
+     */
+    private final int m;
+
+    private final int efConstruction;
+
+    private volatile int efSearch;
+
+    private final double levelMultiplier;
+
+    /**
+     * neighbours.get(row).get(level) is the published neighbour list of the node on the level
+     */
+    private final AtomicReferenceArray<AtomicReferenceArray<int[]>> neighbours;
+
+    private final ReentrantLock[] locks;
+
+    private final ReentrantLock entryLock = new ReentrantLock();
+
+    private volatile int entryPoint = -1;
+
+    private volatile int maxLevel = -1;
+
+    public HnswIndex(TrainingSet trainingSet, int m, int efConstruction, int efSearch) {
+        Objects.requireNonNull(trainingSet);
+
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("Wrong parameters: M=" + m
+                    + ", efConstruction=" + efConstruction + ", efSearch=" + efSearch);
+        }
+
+        if (trainingSet.metric() != DistanceMetrics.EUCLIDEAN) {
+            throw new IllegalArgumentException("The index supports only the euclidean metric: " + trainingSet.metric());
+        }
+
+        this.trainingSet = trainingSet;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.neighbours = new AtomicReferenceArray<>(trainingSet.size());
+        this.locks = new ReentrantLock[trainingSet.size()];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Builds the index inserting all the rows of the training set with the executor.
+     * If an insert fails the other workers stop claiming rows and the failure is thrown,
+     * instead of returning an index with missing nodes.
+     */
+    public static HnswIndex build(TrainingSet trainingSet, int m, int efConstruction, int efSearch,
+                                  ExecutorService executor) throws InterruptedException {
+        HnswIndex index = new HnswIndex(trainingSet, m, efConstruction, efSearch);
+
+        int size = trainingSet.size();
+        if (size == 0) {
+            return index;
+        }
+
+        // the first row becomes the entry point, the rest can go in parallel
+        index.insert(0);
+
+        AtomicInteger next = new AtomicInteger(1);
+        int workers = Runtime.getRuntime().availableProcessors();
+        CountDownLatch endController = new CountDownLatch(workers);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int w = 0; w < workers; w++) {
+            executor.execute(() -> {
+                try {
+                    int row;
+                    while (failure.get() == null && (row = next.getAndIncrement()) < size) {
+                        index.insert(row);
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    endController.countDown();
+                }
+            });
+        }
+        endController.await();
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("The insertion of a row failed", failure.get());
+        }
+
+        return index;
+    }
+
+    public TrainingSet getTrainingSet() {
+        return trainingSet;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * Changes the size of the candidate list used by the searches, the recall knob
+     */
+    public void setEfSearch(int efSearch) {
+        if (efSearch < 1) {
+            throw new IllegalArgumentException("efSearch must be positive: " + efSearch);
+        }
+        this.efSearch = efSearch;
+    }
+
+    private int maxNeighbours(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return (int) (-Math.log(1 - r) * levelMultiplier);
+    }
+
+    private double squaredDistance(int row, int other) {
+        double[] features = trainingSet.features();
+        int dimension = trainingSet.dimension();
+        int offset = row * dimension, otherOffset = other * dimension;
+        double ret = 0.0d;
+        for (int i = 0; i < dimension; i++) {
+            double diff = features[offset + i] - features[otherOffset + i];
+            ret += diff * diff;
+        }
+        return ret;
+    }
+
+    private double[] rowVector(int row) {
+        double[] vector = new double[trainingSet.dimension()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = trainingSet.getFeature(row, i);
+        }
+        return vector;
+    }
+
+    private int[] neighboursOf(int row, int level) {
+        AtomicReferenceArray<int[]> levels = neighbours.get(row);
+        if (levels == null || level >= levels.length()) {
+            return EMPTY;
+        }
+        int[] list = levels.get(level);
+        return list == null ? EMPTY : list;
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Inserts one row of the training set in the graph
+     */
+    public void insert(int row) {
+        int level = randomLevel();
+        AtomicReferenceArray<int[]> levels = new AtomicReferenceArray<>(level + 1);
+        for (int l = 0; l <= level; l++) {
+            levels.set(l, EMPTY);
+        }
+
+        locks[row].lock();
+        try {
+            neighbours.set(row, levels);
+        } finally {
+            locks[row].unlock();
+        }
+
+        // maxLevel is read before entryPoint and written after it, so the entry
+        // point always has at least topLevel levels
+        int topLevel = maxLevel;
+        int entry = entryPoint;
+        if (entry < 0) {
+            entryLock.lock();
+            try {
+                if (entryPoint < 0) {
+                    entryPoint = row;
+                    maxLevel = level;
+                    return;
+                }
+                topLevel = maxLevel;
+                entry = entryPoint;
+            } finally {
+                entryLock.unlock();
+            }
+        }
+
+        double[] query = rowVector(row);
+
+        for (int l = topLevel; l > level; l--) {
+            entry = greedyClosest(query, entry, l);
+        }
+
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            Candidates candidates = searchLevel(query, entry, efConstruction, l);
+            int[] selected = selectNeighbours(row, candidates.sorted(row), maxNeighbours(l));
+
+            // other inserts may have linked to the row since its lists were published
+            link(row, selected, l);
+
+            for (int neighbour : selected) {
+                connect(neighbour, row, l);
+            }
+            if (selected.length > 0) {
+                entry = selected[0];
+            }
+        }
+
+        if (level > maxLevel) {
+            entryLock.lock();
+            try {
+                if (level > maxLevel) {
+                    entryPoint = row;
+                    maxLevel = level;
+                }
+            } finally {
+                entryLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adds the row to the neighbour list of the node
+     */
+    private void connect(int node, int row, int level) {
+        link(node, new int[] {row}, level);
+    }
+
+    /**
+     * Merges the rows into the neighbour list of the node. When the list goes over
+     * the limit, the selection heuristic picks the neighbours among the old and the
+     * new ones, so the farthest or redundant ones are dropped.
+     */
+    private void link(int node, int[] rows, int level) {
+        locks[node].lock();
+        try {
+            AtomicReferenceArray<int[]> levels = neighbours.get(node);
+            if (levels == null || level >= levels.length()) {
+                return;
+            }
+            int[] current = levels.get(level);
+            int max = maxNeighbours(level);
+
+            int[] updated = Arrays.copyOf(current, current.length + rows.length);
+            int n = current.length;
+            for (int row : rows) {
+                if (row != node && !contains(updated, n, row)) {
+                    updated[n++] = row;
+                }
+            }
+            if (n == current.length) {
+                return;
+            }
+
+            if (n <= max) {
+                updated = Arrays.copyOf(updated, n);
+            } else {
+                KNearest byDistance = new KNearest(n);
+                for (int i = 0; i < n; i++) {
+                    byDistance.offer(updated[i], squaredDistance(node, updated[i]));
+                }
+                byDistance.sort();
+
+                int[] sorted = new int[byDistance.size()];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = byDistance.index(i);
+                }
+                updated = selectNeighbours(node, sorted, max);
+            }
+            levels.set(level, updated);
+        } finally {
+            locks[node].unlock();
+        }
+    }
+
+    private static boolean contains(int[] rows, int length, int row) {
+        for (int i = 0; i < length; i++) {
+            if (rows[i] == row) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Neighbour selection heuristic of HNSW: a candidate is kept when it is closer to the
+     * base row than to every neighbour kept before it, which preserves the links between
+     * clusters. The skipped candidates fill the list if there is room left.
+     * @param candidates rows sorted by distance to the base row
+     */
+    private int[] selectNeighbours(int base, int[] candidates, int max) {
+        int[] selected = new int[Math.min(max, candidates.length)];
+        boolean[] taken = new boolean[candidates.length];
+        int n = 0;
+
+        for (int i = 0; i < candidates.length && n < selected.length; i++) {
+            double distance = squaredDistance(base, candidates[i]);
+            boolean keep = true;
+            for (int j = 0; j < n && keep; j++) {
+                keep = squaredDistance(candidates[i], selected[j]) >= distance;
+            }
+            if (keep) {
+                selected[n++] = candidates[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < candidates.length && n < selected.length; i++) {
+            if (!taken[i]) {
+                selected[n++] = candidates[i];
+            }
+        }
+        return selected;
+    }
+
+    private int greedyClosest(double[] query, int entry, int level) {
+        int current = entry;
+        double currentDistance = trainingSet.squaredDistance(current, query);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbour : neighboursOf(current, level)) {
+                double distance = trainingSet.squaredDistance(neighbour, query);
+                if (distance < currentDistance) {
+                    currentDistance = distance;
+                    current = neighbour;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best first search on one level which keeps the ef closest nodes found
+     */
+    private Candidates searchLevel(double[] query, int entry, int ef, int level) {
+        Candidates result = new Candidates(ef);
+        PriorityQueue<double[]> toVisit = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        VisitedSet visited = new VisitedSet();
+
+        double entryDistance = trainingSet.squaredDistance(entry, query);
+        visited.add(entry);
+        toVisit.add(new double[] {entryDistance, entry});
+        result.offer(entry, entryDistance);
+
+        while (!toVisit.isEmpty()) {
+            double[] candidate = toVisit.poll();
+            if (candidate[0] > result.cutoff()) {
+                break;
+            }
+            for (int neighbour : neighboursOf((int) candidate[1], level)) {
+                if (!visited.add(neighbour)) {
+                    continue;
+                }
+                double distance = trainingSet.squaredDistance(neighbour, query);
+                if (distance < result.cutoff()) {
+                    result.offer(neighbour, distance);
+                    toVisit.add(new double[] {distance, neighbour});
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Approximate k nearest rows of the query. The distances in the heap are the ones
+     * of {@link TrainingSet#distance(int, double[])}.
+     */
+    public KNearest nearest(double[] query, int k) {
+        KNearest nearest = new KNearest(k);
+
+        int topLevel = maxLevel;
+        int entry = entryPoint;
+        if (entry < 0) {
+            return nearest;
+        }
+
+        for (int l = topLevel; l > 0; l--) {
+            entry = greedyClosest(query, entry, l);
+        }
+
+        Candidates candidates = searchLevel(query, entry, Math.max(efSearch, k), 0);
+        for (int i = 0; i < candidates.size(); i++) {
+            nearest.offer(candidates.row(i), Math.sqrt(candidates.distance(i)));
+        }
+        return nearest;
+    }
+
+    /**
+     * Bounded set of the closest nodes found by a search, on squared distances
+     */
+    static final class Candidates {
+
+        private final KNearest heap;
+
+        Candidates(int capacity) {
+            this.heap = new KNearest(capacity);
+        }
+
+        void offer(int row, double squaredDistance) {
+            heap.offer(row, squaredDistance);
+        }
+
+        double cutoff() {
+            return heap.cutoff();
+        }
+
+        int size() {
+            return heap.size();
+        }
+
+        int row(int i) {
+            return heap.index(i);
+        }
+
+        double distance(int i) {
+            return heap.distance(i);
+        }
+
+        /**
+         * Returns the rows sorted by distance, excluding the given one
+         */
+        int[] sorted(int exclude) {
+            KNearest copy = new KNearest(heap.capacity());
+            copy.merge(heap);
+            copy.sort();
+
+            int[] ret = new int[copy.size()];
+            int n = 0;
+            for (int i = 0; i < copy.size(); i++) {
+                if (copy.index(i) != exclude) {
+                    ret[n++] = copy.index(i);
+                }
+            }
+            return n == ret.length ? ret : Arrays.copyOf(ret, n);
+        }
+    }
+
+    /**
+     * Small open addressing set of visited rows, sized for one search
+     */
+    static final class VisitedSet {
+
+        private int[] table = new int[256];
+
+        private int count;
+
+        VisitedSet() {
+            Arrays.fill(table, -1);
+        }
+
+        boolean add(int row) {
+            if (2 * (count + 1) > table.length) {
+                grow();
+            }
+            int mask = table.length - 1;
+            int slot = (row * 0x9E3779B1) >>> 1 & mask;
+            while (table[slot] >= 0) {
+                if (table[slot] == row) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = row;
+            count++;
+            return true;
+        }
+
+        private void grow() {
+            int[] old = table;
+            table = new int[old.length * 2];
+            Arrays.fill(table, -1);
+            count = 0;
+            for (int row : old) {
+                if (row >= 0) {
+                    add(row);
+                }
+            }
+        }
+    }
+}
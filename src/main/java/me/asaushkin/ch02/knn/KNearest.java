@@ -0,0 +1,143 @@
+package me.asaushkin.ch02.knn;
+
+/**
+ * Bounded max-heap which keeps the k nearest training rows seen so far.
+ * Rows are ordered by distance and then by index, so the selected set does not
+ * depend on the order in which rows (or partial results) are offered.
+ */
+public final class KNearest {
+
+    private final int capacity;
+
+    private final double[] distances;
+
+    private final int[] indexes;
+
+    private int size;
+
+    private boolean sorted;
+
+    public KNearest(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.distances = new double[capacity];
+        this.indexes = new int[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        size = 0;
+        sorted = false;
+    }
+
+    /**
+     * Returns the distance a row has to beat to be accepted, or
+     * {@link Double#POSITIVE_INFINITY} while the heap is not full
+     */
+    public double cutoff() {
+        return size == capacity ? distances[0] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Offers a row to the heap
+     * @return true if the row is one of the k nearest seen so far
+     */
+    public boolean offer(int index, double distance) {
+        if (sorted) {
+            throw new IllegalStateException("The heap was already sorted");
+        }
+        if (size < capacity) {
+            siftUp(size++, index, distance);
+            return true;
+        }
+        if (!greater(distances[0], indexes[0], distance, index)) {
+            return false;
+        }
+        siftDown(0, index, distance, size);
+        return true;
+    }
+
+    public void merge(KNearest other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.indexes[i], other.distances[i]);
+        }
+    }
+
+    /**
+     * Sorts the rows in ascending order. After this call {@link #index(int)} and
+     * {@link #distance(int)} return the i-th nearest row and no more rows can be offered
+     * until the heap is cleared.
+     */
+    public KNearest sort() {
+        if (sorted) {
+            return this;
+        }
+        for (int last = size - 1; last > 0; last--) {
+            double distance = distances[last];
+            int index = indexes[last];
+            distances[last] = distances[0];
+            indexes[last] = indexes[0];
+            siftDown(0, index, distance, last);
+        }
+        sorted = true;
+        return this;
+    }
+
+    public int index(int i) {
+        return indexes[i];
+    }
+
+    public double distance(int i) {
+        return distances[i];
+    }
+
+    private static boolean greater(double d1, int i1, double d2, int i2) {
+        return d1 > d2 || (d1 == d2 && i1 > i2);
+    }
+
+    private void siftUp(int pos, int index, double distance) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!greater(distance, index, distances[parent], indexes[parent])) {
+                break;
+            }
+            distances[pos] = distances[parent];
+            indexes[pos] = indexes[parent];
+            pos = parent;
+        }
+        distances[pos] = distance;
+        indexes[pos] = index;
+    }
+
+    private void siftDown(int pos, int index, double distance, int limit) {
+        int half = limit >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < limit && greater(distances[right], indexes[right], distances[child], indexes[child])) {
+                child = right;
+            }
+            if (!greater(distances[child], indexes[child], distance, index)) {
+                break;
+            }
+            distances[pos] = distances[child];
+            indexes[pos] = indexes[child];
+            pos = child;
+        }
+        distances[pos] = distance;
+        indexes[pos] = index;
+    }
+}
@@ -0,0 +1,100 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Predicts the tag of a query for several values of k with one neighbour pass. The
+ * largest k is searched once, the neighbours are sorted, and the votes are counted
+ * incrementally while walking them: the prediction for every k is taken when the walk
+ * reaches it. The predictions are the ones a {@link KnnSerialClassifier} with that k
+ * would give, including the ties, which go to the tag with the lowest ordinal.
+ */
+public final class KSweep {
+
+    private final TrainingSet trainingSet;
+
+    /**
+     * Distinct values of k in ascending order
+     */
+    private final int[] ks;
+
+    public KSweep(TrainingSet trainingSet, int... ks) {
+        Objects.requireNonNull(trainingSet);
+
+        int[] sorted = Arrays.stream(ks).sorted().distinct().toArray();
+        if (sorted.length == 0 || sorted[0] <= 0) {
+            throw new IllegalArgumentException("Values of k must be positive: " + Arrays.toString(ks));
+        }
+        this.trainingSet = trainingSet;
+        this.ks = sorted;
+    }
+
+    public TrainingSet getTrainingSet() {
+        return trainingSet;
+    }
+
+    /**
+     * Values of k of the predictions, in ascending order
+     */
+    public int[] ks() {
+        return ks.clone();
+    }
+
+    public int maxK() {
+        return ks[ks.length - 1];
+    }
+
+    /**
+     * Returns the predicted tag for every value of {@link #ks()}
+     */
+    public String[] classify(Sample example) {
+        int[] ordinals = new int[ks.length];
+        predict(trainingSet.toQuery(example), -1, ordinals);
+
+        String[] ret = new String[ks.length];
+        for (int i = 0; i < ks.length; i++) {
+            ret[i] = trainingSet.tagName(ordinals[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Stores in ordinals the tag ordinal predicted for every value of {@link #ks()}.
+     * The excluded row, if not negative, is not counted as a neighbour, which gives the
+     * predictions of a training set without it.
+     */
+    public void predict(double[] query, int excludedRow, int[] ordinals) {
+        int capacity = Math.min(maxK() + (excludedRow < 0 ? 0 : 1), trainingSet.size());
+        Scratch scratch = Scratch.get(capacity, trainingSet.dimension(), trainingSet.tagCount());
+        KNearest nearest = scratch.nearest;
+        int[] votes = scratch.votes;
+
+        trainingSet.scan(query, 0, trainingSet.size(), nearest);
+        nearest.sort();
+
+        Arrays.fill(votes, 0);
+        int best = 0, counted = 0, next = 0;
+        for (int i = 0; i < nearest.size() && next < ks.length; i++) {
+            int row = nearest.index(i);
+            if (row == excludedRow) {
+                continue;
+            }
+            int tag = trainingSet.tagOf(row);
+            votes[tag]++;
+            if (votes[tag] > votes[best] || (votes[tag] == votes[best] && tag < best)) {
+                best = tag;
+            }
+            counted++;
+            while (next < ks.length && ks[next] == counted) {
+                ordinals[next++] = best;
+            }
+        }
+        // k bigger than the training set votes with all the rows
+        while (next < ks.length) {
+            ordinals[next++] = best;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package me.asaushkin.ch02.knn;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * KD-tree over the rows of a training set. Every node splits its rows at the median of
+ * the dimension with the largest spread, so the tree is balanced and the nodes can be
+ * stored in heap order. The tree is immutable once built and can be queried from many
+ * threads at the same time.
+ */
+public final class KdTree {
+
+    static final int DEFAULT_LEAF_SIZE = 16;
+
+    /**
+     * Ranges bigger than this are built by forked tasks
+     */
+    static final int PARALLEL_BUILD_THRESHOLD = 8192;
+
+    private final TrainingSet trainingSet;
+
+    private final int leafSize;
+
+    /**
+     * Rows of the training set reordered so every node owns a contiguous range
+     */
+    private final int[] order;
+
+    private final int[] splitDimension;
+
+    private final double[] splitValue;
+
+    private KdTree(TrainingSet trainingSet, int leafSize) {
+        this.trainingSet = trainingSet;
+        this.leafSize = leafSize;
+
+        int size = trainingSet.size();
+        this.order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        int depth = 0;
+        for (int rows = size; rows > leafSize; rows = (rows + 1) / 2) {
+            depth++;
+        }
+        int nodes = (1 << (depth + 1)) - 1;
+        this.splitDimension = new int[nodes];
+        this.splitValue = new double[nodes];
+    }
+
+    public static KdTree build(TrainingSet trainingSet) {
+        return build(trainingSet, DEFAULT_LEAF_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public static KdTree build(TrainingSet trainingSet, int leafSize, ForkJoinPool pool) {
+        Objects.requireNonNull(trainingSet);
+        Objects.requireNonNull(pool);
+
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("Leaf size must be positive: " + leafSize);
+        }
+
+        KdTree tree = new KdTree(trainingSet, leafSize);
+        pool.invoke(tree.new BuildTask(0, 0, trainingSet.size()));
+        return tree;
+    }
+
+    public TrainingSet getTrainingSet() {
+        return trainingSet;
+    }
+
+    class BuildTask extends RecursiveAction {
+
+        int node, startIndex, endIndex;
+
+        BuildTask(int node, int startIndex, int endIndex) {
+            this.node = node;
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+        }
+
+        @Override
+        protected void compute() {
+            if (endIndex - startIndex <= leafSize) {
+                splitDimension[node] = -1;
+                return;
+            }
+
+            int dimension = widestDimension(startIndex, endIndex);
+            int middle = (startIndex + endIndex) >>> 1;
+            select(dimension, startIndex, endIndex - 1, middle);
+
+            splitDimension[node] = dimension;
+            splitValue[node] = trainingSet.getFeature(order[middle], dimension);
+
+            BuildTask left = new BuildTask(2 * node + 1, startIndex, middle);
+            BuildTask right = new BuildTask(2 * node + 2, middle, endIndex);
+
+            if (endIndex - startIndex > PARALLEL_BUILD_THRESHOLD) {
+                invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+        }
+    }
+
+    private int widestDimension(int startIndex, int endIndex) {
+        int best = 0;
+        double bestSpread = -1;
+        for (int d = 0; d < trainingSet.dimension(); d++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = startIndex; i < endIndex; i++) {
+                double value = trainingSet.getFeature(order[i], d);
+                if (value < min) min = value;
+                if (value > max) max = value;
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                best = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Quickselect on the order array, so that the row at position nth has the nth
+     * value of the dimension, the rows before it are not bigger and the rows after it are not smaller
+     */
+    private void select(int dimension, int left, int right, int nth) {
+        while (right > left) {
+            double pivot = trainingSet.getFeature(order[(left + right) >>> 1], dimension);
+            int i = left, j = right;
+            while (i <= j) {
+                while (trainingSet.getFeature(order[i], dimension) < pivot) i++;
+                while (trainingSet.getFeature(order[j], dimension) > pivot) j--;
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (nth <= j) {
+                right = j;
+            } else if (nth >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the k nearest rows to the query. The distances are the ones of
+     * {@link TrainingSet#distance(int, double[])}, so the result is the same as
+     * the one of a linear scan. A branch is skipped when the
+     * {@link DistanceMetric#lowerBound(int, double)} of the split is bigger than the
+     * current cutoff, with a metric without bounds every leaf is visited.
+     */
+    public KNearest nearest(double[] query, int k) {
+        return nearest(query, new KNearest(k));
+    }
+
+    /**
+     * Finds the rows nearest to the query filling the given heap
+     */
+    public KNearest nearest(double[] query, KNearest nearest) {
+        search(0, 0, trainingSet.size(), query, nearest);
+        return nearest;
+    }
+
+    private void search(int node, int startIndex, int endIndex, double[] query, KNearest nearest) {
+        int dimension = splitDimension[node];
+
+        if (dimension < 0) {
+            for (int i = startIndex; i < endIndex; i++) {
+                trainingSet.offer(order[i], query, nearest);
+            }
+            return;
+        }
+
+        int middle = (startIndex + endIndex) >>> 1;
+        double diff = query[dimension] - splitValue[node];
+        double bound = trainingSet.metric().lowerBound(dimension, diff);
+
+        if (diff < 0) {
+            search(2 * node + 1, startIndex, middle, query, nearest);
+            if (bound <= nearest.cutoff()) {
+                search(2 * node + 2, middle, endIndex, query, nearest);
+            }
+        } else {
+            search(2 * node + 2, middle, endIndex, query, nearest);
+            if (bound <= nearest.cutoff()) {
+                search(2 * node + 1, startIndex, middle, query, nearest);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A k nearest neighbours classifier
+ */
+public interface KnnClassifier {
+
+    /**
+     * Returns the tag voted by the k nearest rows of the training set
+     * @throws InterruptedException if the thread is interrupted while waiting for the
+     *                              tasks of a parallel classifier
+     */
+    String classify(Sample example) throws InterruptedException;
+
+    /**
+     * Classifies the examples in order, the classifiers with a batch scan override it
+     */
+    default List<String> classifyAll(List<? extends Sample> examples) throws InterruptedException {
+        List<String> result = new ArrayList<>(examples.size());
+        for (Sample example : examples) {
+            result.add(classify(example));
+        }
+        return result;
+    }
+}
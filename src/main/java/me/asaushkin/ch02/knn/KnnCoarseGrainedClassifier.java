@@ -8,21 +8,52 @@ import java.net.URISyntaxException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAccumulator;
 import java.util.concurrent.atomic.LongAdder;
 
-public class KnnCoarseGrainedClassifier {
+public class KnnCoarseGrainedClassifier implements KnnClassifier {
 
     static final Logger logger = LoggerFactory.getLogger(KnnCoarseGrainedClassifier.class);
 
-    private List<? extends Sample> dataSet;
+    /**
+     * Rows scanned by an asynchronous partition task between two checks of the result
+     */
+    static final int ASYNC_CHECK_ROWS = 1024;
+
+    /**
+     * Completes the asynchronous classifications which run out of time. The timers of the
+     * classifications which finish in time are removed from the queue when they are cancelled.
+     */
+    private static final ScheduledExecutorService timeouts = newTimeouts();
+
+    private static ScheduledExecutorService newTimeouts() {
+        ScheduledThreadPoolExecutor ret = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "knn-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ret.setRemoveOnCancelPolicy(true);
+        return ret;
+    }
+
+    private TrainingSet trainingSet;
 
     private int k;
 
-    private boolean parallelSort;
+    private Selection selection;
 
     private int numThreads = Runtime.getRuntime().availableProcessors();
 
@@ -34,13 +65,34 @@ public class KnnCoarseGrainedClassifier {
 
     LongAdder execCount = new LongAdder();
 
+    public KnnCoarseGrainedClassifier(List<? extends Sample> dataSet, int k, ExecutorService executor) {
+        this(new TrainingSet(dataSet), k, Selection.TOP_K, executor);
+    }
+
+    public KnnCoarseGrainedClassifier(List<? extends Sample> dataSet, int k, DistanceMetric metric, ExecutorService executor) {
+        this(new TrainingSet(dataSet, metric), k, Selection.TOP_K, executor);
+    }
+
     public KnnCoarseGrainedClassifier(List<? extends Sample> dataSet, int k, boolean parallelSort, ExecutorService executor) {
-        Objects.requireNonNull(dataSet);
+        this(new TrainingSet(dataSet), k, parallelSort ? Selection.PARALLEL_SORT : Selection.SORT, executor);
+    }
 
-        this.dataSet = dataSet;
+    public KnnCoarseGrainedClassifier(TrainingSet trainingSet, int k, ExecutorService executor) {
+        this(trainingSet, k, Selection.TOP_K, executor);
+    }
+
+    public KnnCoarseGrainedClassifier(TrainingSet trainingSet, int k, boolean parallelSort, ExecutorService executor) {
+        this(trainingSet, k, parallelSort ? Selection.PARALLEL_SORT : Selection.SORT, executor);
+    }
+
+    public KnnCoarseGrainedClassifier(TrainingSet trainingSet, int k, Selection selection, ExecutorService executor) {
+        Objects.requireNonNull(trainingSet);
+        Objects.requireNonNull(selection);
+
+        this.trainingSet = trainingSet;
         this.k = k;
 
-        this.parallelSort = parallelSort;
+        this.selection = selection;
         this.executor = executor == null ? Executors.newFixedThreadPool(numThreads) : executor;
     }
 
@@ -48,17 +100,17 @@ public class KnnCoarseGrainedClassifier {
 
         Distance []distances;
         int startIndex, endIndex;
-        List<? extends Sample> dataSet;
-        Sample example;
+        TrainingSet trainingSet;
+        double[] query;
         CountDownLatch countDownLatch;
 
         public GroupDistanceTask(Distance []distances, int startIndex, int endIndex,
-                                 List<? extends Sample> dataSet, Sample example, CountDownLatch countDownLatch) {
+                                 TrainingSet trainingSet, double[] query, CountDownLatch countDownLatch) {
             this.distances = distances;
             this.startIndex = startIndex;
             this.endIndex = endIndex;
-            this.dataSet = dataSet;
-            this.example = example;
+            this.trainingSet = trainingSet;
+            this.query = query;
             this.countDownLatch = countDownLatch;
         }
 
@@ -67,15 +119,58 @@ public class KnnCoarseGrainedClassifier {
             for (int i = startIndex; i < endIndex; i++) {
                 distances[i] = new Distance();
                 distances[i].setIndex(i);
-                distances[i].setDistance(EuclideanDistanceCalculator.calculate(dataSet.get(i), example));
+                distances[i].setDistance(trainingSet.distance(i, query));
             }
             countDownLatch.countDown();
         }
     }
 
+    /**
+     * Scans the partitions of a query which are not claimed yet. The tasks of the executor
+     * and the calling thread run it together, so a partition is either done or being done
+     * by a running thread, and the caller never waits for a task stuck in the queue. This
+     * keeps the classifier safe to call from the tasks of the same executor.
+     */
+    class GroupNearestTask implements Runnable {
+
+        KNearest []partials;
+        AtomicInteger nextPartition;
+        TrainingSet trainingSet;
+        double[] query;
+        CountDownLatch countDownLatch;
+
+        public GroupNearestTask(KNearest []partials, AtomicInteger nextPartition,
+                                TrainingSet trainingSet, double[] query, CountDownLatch countDownLatch) {
+            this.partials = partials;
+            this.nextPartition = nextPartition;
+            this.trainingSet = trainingSet;
+            this.query = query;
+            this.countDownLatch = countDownLatch;
+        }
+
+        @Override
+        public void run() {
+            int totalSize = trainingSet.size();
+            int length = totalSize / partials.length;
+            int j;
+            while ((j = nextPartition.getAndIncrement()) < partials.length) {
+                try {
+                    int startIndex = j * length;
+                    int endIndex = j == partials.length - 1 ? totalSize : startIndex + length;
+                    trainingSet.scan(query, startIndex, endIndex, partials[j]);
+                } finally {
+                    countDownLatch.countDown();
+                }
+            }
+        }
+    }
+
     public String classify(Sample example) throws InterruptedException {
+        if (selection == Selection.TOP_K)
+            return classifyTopK(example);
 
-        int totalSize = dataSet.size();
+        double[] query = trainingSet.toQuery(example);
+        int totalSize = trainingSet.size();
         Distance []distances = new Distance[totalSize];
 
         Instant start = Instant.now();
@@ -87,7 +182,7 @@ public class KnnCoarseGrainedClassifier {
 
         for (int j = 0; j < numThreads; j++) {
             execCount.increment();
-            executor.execute(new GroupDistanceTask(distances, startIndex, endIndex, dataSet, example, endController));
+            executor.execute(new GroupDistanceTask(distances, startIndex, endIndex, trainingSet, query, endController));
 
             startIndex = endIndex;
 
@@ -108,7 +203,7 @@ public class KnnCoarseGrainedClassifier {
             assert distances[j] != null : "Distance is null: " + j;
         }
 
-        if (parallelSort)
+        if (selection == Selection.PARALLEL_SORT)
             Arrays.parallelSort(distances);
         else
             Arrays.sort(distances);
@@ -120,8 +215,7 @@ public class KnnCoarseGrainedClassifier {
         Map<String, Integer> result = new HashMap<>();
 
         for (int i = 0; i < k; i++) {
-            Sample localExample = dataSet.get(distances[i].getIndex());
-            result.merge(localExample.getTag(), 1, (a, b) -> a + b);
+            result.merge(trainingSet.getTag(distances[i].getIndex()), 1, (a, b) -> a + b);
         }
 
         String key = Collections.max(result.entrySet(), Map.Entry.comparingByValue()).getKey();
@@ -132,6 +226,196 @@ public class KnnCoarseGrainedClassifier {
         return key;
     }
 
+    private String classifyTopK(Sample example) throws InterruptedException {
+
+        double[] query = trainingSet.toQuery(example);
+        KNearest []partials = new KNearest[numThreads];
+        for (int j = 0; j < numThreads; j++) {
+            partials[j] = new KNearest(k);
+        }
+
+        Instant start = Instant.now();
+
+        CountDownLatch endController = new CountDownLatch(numThreads);
+        GroupNearestTask task = new GroupNearestTask(partials, new AtomicInteger(), trainingSet, query, endController);
+
+        // the calling thread takes its share of the partitions as well
+        for (int j = 0; j < numThreads - 1; j++) {
+            execCount.increment();
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        task.run();
+
+        endController.await();
+
+        Instant beginSort = Instant.now();
+        execAccumulator.accumulate(Duration.between(start, beginSort).getNano());
+
+        KNearest nearest = partials[0];
+        for (int j = 1; j < partials.length; j++) {
+            nearest.merge(partials[j]);
+        }
+        nearest.sort();
+
+        Instant beginCollect = Instant.now();
+        sortAccumulator.accumulate(Duration.between(beginSort, beginCollect).getNano());
+
+        String key = trainingSet.vote(nearest);
+
+        Instant end = Instant.now();
+        collectAccumulator.accumulate(Duration.between(beginCollect, end).getNano());
+
+        return key;
+    }
+
+    /**
+     * Classifies the example without blocking the caller. The training set is split into
+     * a top-k task per thread, and the task which finishes last merges the partial heaps
+     * and completes the future with the voted tag. The selection of the classifier is not
+     * used, the asynchronous path is always top-k.
+     * <p>
+     * Cancelling the future, or completing it in any other way, stops the partition tasks:
+     * the ones still queued are cancelled and the running ones stop at their next check.
+     * An example which doesn't fit the training set fails the future as well.
+     */
+    public CompletableFuture<String> classifyAsync(Sample example) {
+        return new AsyncQuery(example).start();
+    }
+
+    /**
+     * Like {@link #classifyAsync(Sample)}, the future completes with a {@link TimeoutException}
+     * if the tag is not ready within the timeout
+     */
+    public CompletableFuture<String> classifyAsync(Sample example, long timeout, TimeUnit unit) {
+        CompletableFuture<String> result = classifyAsync(example);
+        if (!result.isDone()) {
+            ScheduledFuture<?> timer = timeouts.schedule(
+                    () -> result.completeExceptionally(new TimeoutException("Classification timed out")), timeout, unit);
+            result.whenComplete((tag, error) -> timer.cancel(false));
+        }
+        return result;
+    }
+
+    class AsyncQuery {
+
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final KNearest []partials = new KNearest[numThreads];
+        final Future<?> []tasks = new Future<?>[numThreads];
+        final AtomicInteger remaining = new AtomicInteger(numThreads);
+        final double[] query;
+
+        AsyncQuery(Sample example) {
+            double[] query = null;
+            try {
+                query = trainingSet.toQuery(example);
+            } catch (IllegalArgumentException e) {
+                result.completeExceptionally(e);
+            }
+            this.query = query;
+        }
+
+        CompletableFuture<String> start() {
+            if (result.isDone()) {
+                return result;
+            }
+            int totalSize = trainingSet.size();
+            int length = totalSize / numThreads;
+            try {
+                for (int j = 0; j < numThreads; j++) {
+                    int startIndex = j * length;
+                    int endIndex = j == numThreads - 1 ? totalSize : startIndex + length;
+                    partials[j] = new KNearest(k);
+                    execCount.increment();
+                    KNearest partial = partials[j];
+                    tasks[j] = executor.submit(() -> scan(partial, startIndex, endIndex));
+                }
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
+
+            result.whenComplete((tag, error) -> {
+                if (error != null) {
+                    for (Future<?> task : tasks) {
+                        if (task != null) {
+                            task.cancel(false);
+                        }
+                    }
+                }
+            });
+            return result;
+        }
+
+        private void scan(KNearest partial, int startIndex, int endIndex) {
+            try {
+                for (int from = startIndex; from < endIndex; from += ASYNC_CHECK_ROWS) {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    trainingSet.scan(query, from, Math.min(endIndex, from + ASYNC_CHECK_ROWS), partial);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    complete();
+                }
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private void complete() {
+            KNearest nearest = partials[0];
+            for (int j = 1; j < partials.length; j++) {
+                nearest.merge(partials[j]);
+            }
+            result.complete(trainingSet.vote(nearest));
+        }
+    }
+
+    public List<String> classifyAll(List<? extends Sample> examples) throws InterruptedException {
+        return classifyAll(examples, false);
+    }
+
+    /**
+     * Classifies a batch of examples tiling queries x training rows into cache sized blocks.
+     * Every block of queries is scored by a task of the executor.
+     * @param normExpansion use the precomputed norms of the training rows and a dot product
+     *                      instead of the difference per dimension
+     */
+    public List<String> classifyAll(List<? extends Sample> examples, boolean normExpansion) throws InterruptedException {
+        BlockedScan scan = new BlockedScan(trainingSet, k, normExpansion);
+        double[][] queries = scan.toQueries(examples);
+        String[] result = new String[queries.length];
+
+        int blocks = scan.blockCount(queries.length);
+        CountDownLatch endController = new CountDownLatch(blocks);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int block = 0; block < blocks; block++) {
+            execCount.increment();
+            int current = block;
+            executor.execute(() -> {
+                try {
+                    scan.classifyBlock(queries, current, result);
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    endController.countDown();
+                }
+            });
+        }
+
+        endController.await();
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("The classification of a block failed", failure.get());
+        }
+
+        return Arrays.asList(result);
+    }
+
     public static void main(String[] args) throws URISyntaxException {
 
         List<BankMarketing> train = BankMarketingLoader.load("bank.data");
@@ -147,7 +431,7 @@ public class KnnCoarseGrainedClassifier {
         if (args.length > 0)
             k = Integer.parseInt(args[0]);
 
-        KnnCoarseGrainedClassifier classifier = new KnnCoarseGrainedClassifier(train, k, false, null);
+        KnnCoarseGrainedClassifier classifier = new KnnCoarseGrainedClassifier(train, k, null);
         try {
             Date start, end;
             start = new Date();
@@ -164,12 +448,30 @@ public class KnnCoarseGrainedClassifier {
             currentTime = end.getTime() - start.getTime();
         } catch (Exception e) {
             e.printStackTrace();
+        }
+
+        double asyncTime = 0d;
+        int asyncSuccess = 0;
+        try {
+            Date start = new Date();
+            List<CompletableFuture<String>> tags = new ArrayList<>(test.size());
+            for (BankMarketing example : test) {
+                tags.add(classifier.classifyAsync(example, 10, TimeUnit.SECONDS));
+            }
+            for (int i = 0; i < test.size(); i++) {
+                if (tags.get(i).join().equals(test.get(i).getTag())) {
+                    asyncSuccess++;
+                }
+            }
+            asyncTime = new Date().getTime() - start.getTime();
+        } catch (Exception e) {
+            e.printStackTrace();
         } finally {
             classifier.close();
         }
         System.out.println("******************************************");
         System.out.println("Parallel Coarse Grained Classifier - K: " + k);
-        System.out.println("Is parallel sort: " + classifier.parallelSort);
+        System.out.println("Selection: " + classifier.selection);
         System.out.println("Success: " + success);
         System.out.println("Mistakes: " + mistakes);
         System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
@@ -180,6 +482,9 @@ public class KnnCoarseGrainedClassifier {
 
         System.out.println("Total tasks: " + classifier.execCount);
 
+        System.out.println("Async Success: " + asyncSuccess);
+        System.out.println("Async Execution Time, all queries in flight: " + (asyncTime / 1000) + " seconds.");
+
         System.out.println("******************************************");
     }
 
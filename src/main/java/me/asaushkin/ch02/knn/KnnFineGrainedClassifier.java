@@ -12,15 +12,15 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.LongAccumulator;
 import java.util.concurrent.atomic.LongAdder;
 
-public class KnnFineGrainedClassifier {
+public class KnnFineGrainedClassifier implements KnnClassifier {
 
     static final Logger logger = LoggerFactory.getLogger(KnnFineGrainedClassifier.class);
 
-    private List<? extends Sample> dataSet;
+    private TrainingSet trainingSet;
 
     private int k;
 
-    private boolean parallelSort;
+    private Selection selection;
 
     private int numThreads = Runtime.getRuntime().availableProcessors();
 
@@ -32,14 +32,38 @@ public class KnnFineGrainedClassifier {
 
     LongAdder execCount = new LongAdder();
 
+    public KnnFineGrainedClassifier(List<? extends Sample> dataSet, int k, ExecutorService executor) {
+        this(new TrainingSet(dataSet), k, Selection.TOP_K, executor);
+    }
+
     public KnnFineGrainedClassifier(List<? extends Sample> dataSet, int k,
+                                    DistanceMetric metric, ExecutorService executor) {
+        this(new TrainingSet(dataSet, metric), k, Selection.TOP_K, executor);
+    }
+
+    public KnnFineGrainedClassifier(List<? extends Sample> dataSet, int k,
+                                    boolean parallelSort, ExecutorService executor) {
+        this(new TrainingSet(dataSet), k, parallelSort ? Selection.PARALLEL_SORT : Selection.SORT, executor);
+    }
+
+    public KnnFineGrainedClassifier(TrainingSet trainingSet, int k, ExecutorService executor) {
+        this(trainingSet, k, Selection.TOP_K, executor);
+    }
+
+    public KnnFineGrainedClassifier(TrainingSet trainingSet, int k,
                                     boolean parallelSort, ExecutorService executor) {
-        Objects.requireNonNull(dataSet);
+        this(trainingSet, k, parallelSort ? Selection.PARALLEL_SORT : Selection.SORT, executor);
+    }
 
-        this.dataSet = dataSet;
+    public KnnFineGrainedClassifier(TrainingSet trainingSet, int k,
+                                    Selection selection, ExecutorService executor) {
+        Objects.requireNonNull(trainingSet);
+        Objects.requireNonNull(selection);
+
+        this.trainingSet = trainingSet;
         this.k = k;
 
-        this.parallelSort = parallelSort;
+        this.selection = selection;
         this.executor = executor == null ? Executors.newFixedThreadPool(numThreads) : executor;
     }
 
@@ -47,15 +71,16 @@ public class KnnFineGrainedClassifier {
 
         Distance []distances;
         int index;
-        Sample localExample, example;
+        TrainingSet trainingSet;
+        double[] query;
         CountDownLatch countDownLatch;
 
         public IndividualDistanceTask(Distance []distances, int index,
-                                      Sample localExample, Sample example, CountDownLatch countDownLatch) {
+                                      TrainingSet trainingSet, double[] query, CountDownLatch countDownLatch) {
             this.distances = distances;
             this.index = index;
-            this.localExample = localExample;
-            this.example = example;
+            this.trainingSet = trainingSet;
+            this.query = query;
             this.countDownLatch = countDownLatch;
         }
 
@@ -63,29 +88,56 @@ public class KnnFineGrainedClassifier {
         public void run() {
             distances[index] = new Distance();
             distances[index].setIndex(index);
-            distances[index].setDistance(EuclideanDistanceCalculator.calculate(localExample, example));
+            distances[index].setDistance(trainingSet.distance(index, query));
+            countDownLatch.countDown();
+        }
+    }
+
+    class IndividualRawDistanceTask implements Runnable {
+
+        double []distances;
+        int index;
+        TrainingSet trainingSet;
+        double[] query;
+        CountDownLatch countDownLatch;
+
+        public IndividualRawDistanceTask(double []distances, int index,
+                                         TrainingSet trainingSet, double[] query, CountDownLatch countDownLatch) {
+            this.distances = distances;
+            this.index = index;
+            this.trainingSet = trainingSet;
+            this.query = query;
+            this.countDownLatch = countDownLatch;
+        }
+
+        @Override
+        public void run() {
+            distances[index] = trainingSet.distance(index, query);
             countDownLatch.countDown();
         }
     }
 
     public String classify(Sample example) throws InterruptedException {
+        if (selection == Selection.TOP_K)
+            return classifyTopK(example);
 
-        Distance []distances = new Distance[dataSet.size()];
+        double[] query = trainingSet.toQuery(example);
+        Distance []distances = new Distance[trainingSet.size()];
 
         Instant start = Instant.now();
 
-        int i = 0;
-        CountDownLatch endController = new CountDownLatch(dataSet.size());
-        for (Sample localExample : dataSet) {
+        int i;
+        CountDownLatch endController = new CountDownLatch(distances.length);
+        for (i = 0; i < distances.length; i++) {
             execCount.increment();
-            executor.execute(new IndividualDistanceTask(distances, i++, localExample, example, endController));
+            executor.execute(new IndividualDistanceTask(distances, i, trainingSet, query, endController));
         }
         endController.await();
 
         Instant beginSort = Instant.now();
         execAccumulator.accumulate(Duration.between(start, beginSort).getNano());
 
-        if (parallelSort)
+        if (selection == Selection.PARALLEL_SORT)
             Arrays.parallelSort(distances);
         else
             Arrays.sort(distances);
@@ -97,8 +149,48 @@ public class KnnFineGrainedClassifier {
         Map<String, Integer> result = new HashMap<>();
 
         for (i = 0; i < k; i++) {
-            Sample localExample = dataSet.get(distances[i].getIndex());
-            result.merge(localExample.getTag(), 1, (a, b) -> a + b);
+            result.merge(trainingSet.getTag(distances[i].getIndex()), 1, (a, b) -> a + b);
+        }
+
+        String key = Collections.max(result.entrySet(), Map.Entry.comparingByValue()).getKey();
+
+        Instant end = Instant.now();
+        collectAccumulator.accumulate(Duration.between(beginCollect, end).getNano());
+
+        return key;
+    }
+
+    private String classifyTopK(Sample example) throws InterruptedException {
+
+        double[] query = trainingSet.toQuery(example);
+        double []distances = new double[trainingSet.size()];
+
+        Instant start = Instant.now();
+
+        int i;
+        CountDownLatch endController = new CountDownLatch(distances.length);
+        for (i = 0; i < distances.length; i++) {
+            execCount.increment();
+            executor.execute(new IndividualRawDistanceTask(distances, i, trainingSet, query, endController));
+        }
+        endController.await();
+
+        Instant beginSort = Instant.now();
+        execAccumulator.accumulate(Duration.between(start, beginSort).getNano());
+
+        KNearest nearest = new KNearest(k);
+        for (i = 0; i < distances.length; i++) {
+            nearest.offer(i, distances[i]);
+        }
+        nearest.sort();
+
+        Instant beginCollect = Instant.now();
+        sortAccumulator.accumulate(Duration.between(beginSort, beginCollect).getNano());
+
+        Map<String, Integer> result = new HashMap<>();
+
+        for (i = 0; i < nearest.size(); i++) {
+            result.merge(trainingSet.getTag(nearest.index(i)), 1, (a, b) -> a + b);
         }
 
         String key = Collections.max(result.entrySet(), Map.Entry.comparingByValue()).getKey();
@@ -124,7 +216,7 @@ public class KnnFineGrainedClassifier {
         if (args.length > 0)
             k = Integer.parseInt(args[0]);
 
-        KnnFineGrainedClassifier classifier = new KnnFineGrainedClassifier(train, k, true, null);
+        KnnFineGrainedClassifier classifier = new KnnFineGrainedClassifier(train, k, null);
         try {
             Date start, end;
             start = new Date();
@@ -146,7 +238,7 @@ public class KnnFineGrainedClassifier {
         }
         System.out.println("******************************************");
         System.out.println("Parallel Fine Grained Classifier - K: " + k);
-        System.out.println("Is parallel sort: " + classifier.parallelSort);
+        System.out.println("Selection: " + classifier.selection);
         System.out.println("Success: " + success);
         System.out.println("Mistakes: " + mistakes);
         System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
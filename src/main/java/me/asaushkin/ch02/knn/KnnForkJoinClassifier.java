@@ -0,0 +1,207 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class KnnForkJoinClassifier implements KnnClassifier {
+
+    static final int DEFAULT_THRESHOLD = 2048;
+
+    private TrainingSet trainingSet;
+
+    private int k;
+
+    private int threshold;
+
+    private ForkJoinPool pool;
+
+    LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+    LongAccumulator collectAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+
+    LongAdder execCount = new LongAdder();
+
+    public KnnForkJoinClassifier(List<? extends Sample> dataSet, int k, ForkJoinPool pool) {
+        this(new TrainingSet(dataSet), k, DEFAULT_THRESHOLD, pool);
+    }
+
+    public KnnForkJoinClassifier(List<? extends Sample> dataSet, int k, DistanceMetric metric, ForkJoinPool pool) {
+        this(new TrainingSet(dataSet, metric), k, DEFAULT_THRESHOLD, pool);
+    }
+
+    public KnnForkJoinClassifier(TrainingSet trainingSet, int k, ForkJoinPool pool) {
+        this(trainingSet, k, DEFAULT_THRESHOLD, pool);
+    }
+
+    public KnnForkJoinClassifier(TrainingSet trainingSet, int k, int threshold, ForkJoinPool pool) {
+        Objects.requireNonNull(trainingSet);
+
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        }
+
+        this.trainingSet = trainingSet;
+        this.k = k;
+        this.threshold = threshold;
+        this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+    }
+
+    class NearestTask extends RecursiveTask<KNearest> {
+
+        int startIndex, endIndex;
+        double[] query;
+
+        NearestTask(int startIndex, int endIndex, double[] query) {
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.query = query;
+        }
+
+        @Override
+        protected KNearest compute() {
+            execCount.increment();
+
+            if (endIndex - startIndex <= threshold) {
+                KNearest nearest = new KNearest(k);
+                trainingSet.scan(query, startIndex, endIndex, nearest);
+                return nearest;
+            }
+
+            int middle = (startIndex + endIndex) >>> 1;
+            NearestTask left = new NearestTask(startIndex, middle, query);
+            NearestTask right = new NearestTask(middle, endIndex, query);
+
+            left.fork();
+            KNearest nearest = right.compute();
+            nearest.merge(left.join());
+            return nearest;
+        }
+    }
+
+    static class BatchTask extends RecursiveAction {
+
+        BlockedScan scan;
+        double[][] queries;
+        String[] result;
+        int startBlock, endBlock;
+
+        BatchTask(BlockedScan scan, double[][] queries, String[] result, int startBlock, int endBlock) {
+            this.scan = scan;
+            this.queries = queries;
+            this.result = result;
+            this.startBlock = startBlock;
+            this.endBlock = endBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (endBlock - startBlock == 1) {
+                scan.classifyBlock(queries, startBlock, result);
+                return;
+            }
+
+            int middle = (startBlock + endBlock) >>> 1;
+            invokeAll(new BatchTask(scan, queries, result, startBlock, middle),
+                    new BatchTask(scan, queries, result, middle, endBlock));
+        }
+    }
+
+    public String classify(Sample example) {
+
+        double[] query = trainingSet.toQuery(example);
+
+        Instant start = Instant.now();
+
+        KNearest nearest = pool.invoke(new NearestTask(0, trainingSet.size(), query));
+        nearest.sort();
+
+        Instant beginCollect = Instant.now();
+        execAccumulator.accumulate(Duration.between(start, beginCollect).getNano());
+
+        String key = trainingSet.vote(nearest);
+
+        Instant end = Instant.now();
+        collectAccumulator.accumulate(Duration.between(beginCollect, end).getNano());
+
+        return key;
+    }
+
+    public List<String> classifyAll(List<? extends Sample> examples) {
+        return classifyAll(examples, false);
+    }
+
+    /**
+     * Classifies a batch of examples tiling queries x training rows into cache sized blocks.
+     * The blocks of queries are split between the workers of the pool.
+     * @param normExpansion use the precomputed norms of the training rows and a dot product
+     *                      instead of the difference per dimension
+     */
+    public List<String> classifyAll(List<? extends Sample> examples, boolean normExpansion) {
+        BlockedScan scan = new BlockedScan(trainingSet, k, normExpansion);
+        double[][] queries = scan.toQueries(examples);
+        String[] result = new String[queries.length];
+
+        int blocks = scan.blockCount(queries.length);
+        if (blocks > 0) {
+            pool.invoke(new BatchTask(scan, queries, result, 0, blocks));
+        }
+
+        return Arrays.asList(result);
+    }
+
+    public static void main(String[] args) throws URISyntaxException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        double currentTime = 0d;
+        int success = 0, mistakes = 0;
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        KnnForkJoinClassifier classifier = new KnnForkJoinClassifier(train, k, null);
+        try {
+            Date start, end;
+            start = new Date();
+            for (BankMarketing example : test) {
+                String tag = classifier.classify(example);
+                if (tag.equals(example.getTag())) {
+                    success++;
+                } else {
+                    mistakes++;
+                }
+            }
+            end = new Date();
+
+            currentTime = end.getTime() - start.getTime();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        System.out.println("******************************************");
+        System.out.println("Fork/Join Classifier - K: " + k);
+        System.out.println("Threshold: " + classifier.threshold);
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
+
+        System.out.println("Task execution time: " + classifier.execAccumulator.doubleValue()/1_000_000_000 + " seconds.");
+        System.out.println("Collect time: " + classifier.collectAccumulator.doubleValue()/1_000_000_000 + " seconds.");
+
+        System.out.println("Total tasks: " + classifier.execCount);
+
+        System.out.println("******************************************");
+    }
+}
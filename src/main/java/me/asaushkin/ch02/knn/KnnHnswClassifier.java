@@ -0,0 +1,139 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Classifier which takes the k nearest neighbours from an {@link HnswIndex}.
+ * The result is approximate, {@link #recall(List, KnnSerialClassifier)} measures how
+ * many of the exact neighbours it finds.
+ */
+public class KnnHnswClassifier implements KnnClassifier {
+
+    static final int DEFAULT_M = 16;
+    static final int DEFAULT_EF_CONSTRUCTION = 200;
+    static final int DEFAULT_EF_SEARCH = 64;
+
+    private HnswIndex index;
+
+    private int k;
+
+    LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+
+    public KnnHnswClassifier(HnswIndex index, int k) {
+        Objects.requireNonNull(index);
+
+        this.index = index;
+        this.k = k;
+    }
+
+    public HnswIndex getIndex() {
+        return index;
+    }
+
+    public KNearest nearest(Sample example) {
+        double[] query = index.getTrainingSet().toQuery(example);
+
+        long start = System.nanoTime();
+
+        KNearest nearest = index.nearest(query, k);
+
+        execAccumulator.accumulate(System.nanoTime() - start);
+
+        return nearest.sort();
+    }
+
+    public String classify(Sample example) {
+        return index.getTrainingSet().vote(nearest(example));
+    }
+
+    /**
+     * Evaluation mode: the fraction of the exact k nearest rows found by the index, recall@k
+     * @param exact serial classifier over the same training set and with the same k
+     */
+    public double recall(List<? extends Sample> examples, KnnSerialClassifier exact) {
+        long found = 0, total = 0;
+
+        for (Sample example : examples) {
+            KNearest expected = exact.nearest(example);
+            KNearest actual = nearest(example);
+
+            Set<Integer> rows = new HashSet<>();
+            for (int i = 0; i < actual.size(); i++) {
+                rows.add(actual.index(i));
+            }
+            for (int i = 0; i < expected.size(); i++) {
+                if (rows.contains(expected.index(i))) {
+                    found++;
+                }
+            }
+            total += expected.size();
+        }
+
+        return total == 0 ? 1.0d : (double) found / total;
+    }
+
+    public static void main(String[] args) throws URISyntaxException, InterruptedException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        int m = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_M;
+        int efConstruction = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_EF_CONSTRUCTION;
+
+        TrainingSet trainingSet = new TrainingSet(train);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        HnswIndex index;
+        Date buildStart = new Date();
+        try {
+            index = HnswIndex.build(trainingSet, m, efConstruction, DEFAULT_EF_SEARCH, executor);
+        } finally {
+            executor.shutdown();
+        }
+        Date buildEnd = new Date();
+
+        KnnSerialClassifier exact = new KnnSerialClassifier(trainingSet, k);
+        KnnHnswClassifier classifier = new KnnHnswClassifier(index, k);
+
+        System.out.println("******************************************");
+        System.out.println("HNSW Classifier - K: " + k + ", M: " + m + ", efConstruction: " + efConstruction);
+        System.out.println("Build Time: " + ((buildEnd.getTime() - buildStart.getTime()) / 1000d) + " seconds.");
+
+        for (int efSearch : new int[] {k, 2 * k, 4 * k, 8 * k, 16 * k}) {
+            index.setEfSearch(efSearch);
+
+            int success = 0, mistakes = 0;
+            Date start = new Date();
+            for (BankMarketing example : test) {
+                String tag = classifier.classify(example);
+                if (tag.equals(example.getTag())) {
+                    success++;
+                } else {
+                    mistakes++;
+                }
+            }
+            Date end = new Date();
+
+            System.out.println("efSearch: " + efSearch
+                    + ", Success: " + success
+                    + ", Mistakes: " + mistakes
+                    + ", Execution Time: " + ((end.getTime() - start.getTime()) / 1000d) + " seconds"
+                    + ", Recall@" + k + ": " + classifier.recall(test, exact));
+        }
+
+        System.out.println("******************************************");
+    }
+}
@@ -0,0 +1,292 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.io.Closeable;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Parallel classifier for the latency of single queries. Instead of tasks submitted to
+ * an executor for every query, it keeps a thread per partition of the training set,
+ * started once and waiting on a phase counter. A query is published by advancing the
+ * phase, every worker scans its own partition into its own heap, and the calling thread
+ * scans the first partition meanwhile, so there are no queue hand-offs and no objects
+ * created per query.
+ * <p>
+ * The workers and the caller spin for a short while before they park, so a stream of
+ * queries doesn't pay for the wake-ups. The queries run one at a time, concurrent
+ * callers wait for their turn on a lock.
+ */
+public class KnnHotPoolClassifier implements KnnClassifier, Closeable {
+
+    /**
+     * Iterations of a thread checking the phase before it parks
+     */
+    static final int SPIN_LIMIT = 1 << 14;
+
+    private final TrainingSet trainingSet;
+
+    private final int k;
+
+    private final Worker[] workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Number of the current query, the workers scan when it goes past the last one they did
+     */
+    private volatile long phase;
+
+    private volatile boolean closed;
+
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    private volatile Thread caller;
+
+    private volatile boolean callerParked;
+
+    private volatile Throwable failure;
+
+    private final double[] query;
+
+    private final KNearest nearest;
+
+    private final int[] votes;
+
+    LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+
+    public KnnHotPoolClassifier(List<? extends Sample> dataSet, int k) {
+        this(new TrainingSet(dataSet), k, Runtime.getRuntime().availableProcessors());
+    }
+
+    public KnnHotPoolClassifier(TrainingSet trainingSet, int k) {
+        this(trainingSet, k, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param partitions number of partitions of the training set, the calling thread
+     *                   scans one of them and a worker thread is started for each other
+     */
+    public KnnHotPoolClassifier(TrainingSet trainingSet, int k, int partitions) {
+        Objects.requireNonNull(trainingSet);
+
+        if (k <= 0) {
+            throw new IllegalArgumentException("K must be positive: " + k);
+        }
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Partitions must be positive: " + partitions);
+        }
+
+        this.trainingSet = trainingSet;
+        this.k = k;
+        this.query = new double[trainingSet.dimension()];
+        this.nearest = new KNearest(k);
+        this.votes = new int[trainingSet.tagCount()];
+
+        int size = trainingSet.size();
+        this.workers = new Worker[partitions];
+        for (int i = 0; i < partitions; i++) {
+            workers[i] = new Worker((int) ((long) size * i / partitions), (int) ((long) size * (i + 1) / partitions));
+        }
+        for (int i = 1; i < partitions; i++) {
+            workers[i].thread = new Thread(workers[i], "knn-hot-worker-" + i);
+            workers[i].thread.setDaemon(true);
+            workers[i].thread.start();
+        }
+    }
+
+    public TrainingSet getTrainingSet() {
+        return trainingSet;
+    }
+
+    class Worker implements Runnable {
+
+        final int startIndex, endIndex;
+
+        final KNearest partial = new KNearest(k);
+
+        Thread thread;
+
+        volatile boolean parked;
+
+        long done;
+
+        Worker(int startIndex, int endIndex) {
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                for (int spins = 0; phase == done && !closed; spins++) {
+                    if (spins >= SPIN_LIMIT) {
+                        parked = true;
+                        if (phase == done && !closed) {
+                            LockSupport.park(this);
+                        }
+                        parked = false;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                done = phase;
+                scan(this);
+                if (remaining.decrementAndGet() == 0 && callerParked) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+
+    private void scan(Worker worker) {
+        worker.partial.clear();
+        try {
+            trainingSet.scan(query, worker.startIndex, worker.endIndex, worker.partial);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+    }
+
+    @Override
+    public String classify(Sample example) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The classifier is closed");
+            }
+            trainingSet.toQuery(example, query);
+
+            long start = System.nanoTime();
+
+            caller = Thread.currentThread();
+            remaining.set(workers.length - 1);
+            phase++;
+            for (int i = 1; i < workers.length; i++) {
+                if (workers[i].parked) {
+                    LockSupport.unpark(workers[i].thread);
+                }
+            }
+
+            scan(workers[0]);
+            awaitWorkers();
+
+            execAccumulator.accumulate(System.nanoTime() - start);
+
+            Throwable error = failure;
+            if (error != null) {
+                failure = null;
+                throw new IllegalStateException("A partition scan failed", error);
+            }
+
+            nearest.clear();
+            for (Worker worker : workers) {
+                nearest.merge(worker.partial);
+            }
+            return trainingSet.vote(nearest, votes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the partitions of the workers without giving up on an interrupt, as the
+     * workers still use the buffers of the query. The interrupt is kept for the caller.
+     */
+    private void awaitWorkers() {
+        boolean interrupted = false;
+        for (int spins = 0; remaining.get() != 0; spins++) {
+            if (spins >= SPIN_LIMIT) {
+                callerParked = true;
+                if (remaining.get() != 0) {
+                    LockSupport.park(this);
+                    interrupted |= Thread.interrupted();
+                }
+                callerParked = false;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the workers
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (int i = 1; i < workers.length; i++) {
+                LockSupport.unpark(workers[i].thread);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long[] latencies(KnnClassifier classifier, List<BankMarketing> test, int[] success) throws InterruptedException {
+        long[] ret = new long[test.size()];
+        success[0] = 0;
+        for (int i = 0; i < test.size(); i++) {
+            long start = System.nanoTime();
+            String tag = classifier.classify(test.get(i));
+            ret[i] = System.nanoTime() - start;
+            if (tag.equals(test.get(i).getTag())) {
+                success[0]++;
+            }
+        }
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Latency of single queries with the hot workers and with the tasks of the coarse grained classifier
+     */
+    public static void main(String[] args) throws URISyntaxException, InterruptedException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        TrainingSet trainingSet = new TrainingSet(train);
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        KnnCoarseGrainedClassifier coarse = new KnnCoarseGrainedClassifier(trainingSet, k, executor);
+
+        try (KnnHotPoolClassifier hot = new KnnHotPoolClassifier(trainingSet, k)) {
+            for (int round = 0; round < 3; round++) {
+                int[] success = new int[1];
+                for (KnnClassifier classifier : new KnnClassifier[]{coarse, hot}) {
+                    long[] latencies = latencies(classifier, test, success);
+
+                    System.out.println("******************************************");
+                    System.out.println(classifier.getClass().getSimpleName() + " - K: " + k + ", round: " + round);
+                    System.out.println("Success: " + success[0]);
+                    System.out.println("Mistakes: " + (test.size() - success[0]));
+                    System.out.println(String.format("Latency us p50: %.1f, p99: %.1f, max: %.1f",
+                            latencies[latencies.length / 2] / 1000d,
+                            latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1000d,
+                            latencies[latencies.length - 1] / 1000d));
+                    System.out.println("******************************************");
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
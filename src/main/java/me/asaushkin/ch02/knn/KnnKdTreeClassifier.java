@@ -0,0 +1,101 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Classifier which answers the k nearest neighbours with a branch and bound
+ * traversal of a {@link KdTree} instead of a linear scan
+ */
+public class KnnKdTreeClassifier implements KnnClassifier {
+
+    private KdTree tree;
+
+    private int k;
+
+    LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+
+    public KnnKdTreeClassifier(List<? extends Sample> dataSet, int k) {
+        this(KdTree.build(new TrainingSet(dataSet)), k);
+    }
+
+    public KnnKdTreeClassifier(List<? extends Sample> dataSet, int k, DistanceMetric metric) {
+        this(KdTree.build(new TrainingSet(dataSet, metric)), k);
+    }
+
+    public KnnKdTreeClassifier(TrainingSet trainingSet, int k) {
+        this(KdTree.build(trainingSet), k);
+    }
+
+    public KnnKdTreeClassifier(KdTree tree, int k) {
+        Objects.requireNonNull(tree);
+
+        this.tree = tree;
+        this.k = k;
+    }
+
+    public String classify(Sample example) {
+        TrainingSet trainingSet = tree.getTrainingSet();
+        Scratch scratch = Scratch.get(k, trainingSet.dimension(), trainingSet.tagCount());
+        double[] query = trainingSet.toQuery(example, scratch.query);
+
+        long start = System.nanoTime();
+
+        KNearest nearest = tree.nearest(query, scratch.nearest);
+
+        execAccumulator.accumulate(System.nanoTime() - start);
+
+        return trainingSet.vote(nearest, scratch.votes);
+    }
+
+    public static void main(String[] args) throws URISyntaxException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        double currentTime = 0d;
+        int success = 0, mistakes = 0;
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        Date buildStart = new Date();
+        KnnKdTreeClassifier classifier = new KnnKdTreeClassifier(train, k);
+        Date buildEnd = new Date();
+
+        try {
+            Date start, end;
+            start = new Date();
+            for (BankMarketing example : test) {
+                String tag = classifier.classify(example);
+                if (tag.equals(example.getTag())) {
+                    success++;
+                } else {
+                    mistakes++;
+                }
+            }
+            end = new Date();
+
+            currentTime = end.getTime() - start.getTime();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        System.out.println("******************************************");
+        System.out.println("KD-tree Classifier - K: " + k);
+        System.out.println("Build Time: " + ((buildEnd.getTime() - buildStart.getTime()) / 1000d) + " seconds.");
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
+
+        System.out.println("Search time: " + classifier.execAccumulator.doubleValue()/1_000_000_000 + " seconds.");
+
+        System.out.println("******************************************");
+    }
+}
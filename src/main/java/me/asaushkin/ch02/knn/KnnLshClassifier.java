@@ -0,0 +1,181 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classifier which computes the exact distances only for the candidates shortlisted by
+ * an {@link LshIndex}. With an index without tables every row is scored, and the result
+ * is the one of {@link KnnSerialClassifier}. If a query gets less than k candidates it
+ * falls back to the full scan.
+ */
+public class KnnLshClassifier implements KnnClassifier {
+
+    private TrainingSet trainingSet;
+
+    private LshIndex index;
+
+    private int k;
+
+    /**
+     * Every recallSampling-th query is also answered with a full scan to update the
+     * recall counters, 0 disables the sampling
+     */
+    private volatile int recallSampling;
+
+    final LongAdder queryCount = new LongAdder();
+    final LongAdder candidateCount = new LongAdder();
+    final LongAdder fallbackCount = new LongAdder();
+    final LongAdder sampledNeighbours = new LongAdder();
+    final LongAdder foundNeighbours = new LongAdder();
+
+    public KnnLshClassifier(LshIndex index, int k) {
+        Objects.requireNonNull(index);
+
+        this.index = index;
+        this.trainingSet = index.getTrainingSet();
+        this.k = k;
+    }
+
+    public void setRecallSampling(int recallSampling) {
+        if (recallSampling < 0) {
+            throw new IllegalArgumentException("Recall sampling can't be negative: " + recallSampling);
+        }
+        this.recallSampling = recallSampling;
+    }
+
+    public KNearest nearest(Sample example) {
+        double[] query = trainingSet.toQuery(example);
+
+        long queries = queryCount.sum();
+        queryCount.increment();
+
+        int[] candidates = index.candidates(query);
+
+        KNearest nearest;
+        if (candidates == null || candidates.length < k) {
+            if (candidates != null) {
+                fallbackCount.increment();
+            }
+            candidateCount.add(trainingSet.size());
+            nearest = scan(query);
+        } else {
+            candidateCount.add(candidates.length);
+            nearest = new KNearest(k);
+            for (int row : candidates) {
+                trainingSet.offer(row, query, nearest);
+            }
+
+            int sampling = recallSampling;
+            if (sampling > 0 && queries % sampling == 0) {
+                sampleRecall(nearest, scan(query));
+            }
+        }
+
+        return nearest.sort();
+    }
+
+    public String classify(Sample example) {
+        return trainingSet.vote(nearest(example));
+    }
+
+    private KNearest scan(double[] query) {
+        KNearest nearest = new KNearest(k);
+        trainingSet.scan(query, 0, trainingSet.size(), nearest);
+        return nearest;
+    }
+
+    private void sampleRecall(KNearest actual, KNearest expected) {
+        Set<Integer> rows = new HashSet<>();
+        for (int i = 0; i < actual.size(); i++) {
+            rows.add(actual.index(i));
+        }
+        int found = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            if (rows.contains(expected.index(i))) {
+                found++;
+            }
+        }
+        foundNeighbours.add(found);
+        sampledNeighbours.add(expected.size());
+    }
+
+    public long getQueryCount() {
+        return queryCount.sum();
+    }
+
+    /**
+     * Mean number of rows scored per query
+     */
+    public double getMeanCandidates() {
+        long queries = queryCount.sum();
+        return queries == 0 ? 0.0d : (double) candidateCount.sum() / queries;
+    }
+
+    public long getFallbackCount() {
+        return fallbackCount.sum();
+    }
+
+    /**
+     * Recall@k measured on the sampled queries, NaN if no query was sampled
+     */
+    public double getSampledRecall() {
+        long sampled = sampledNeighbours.sum();
+        return sampled == 0 ? Double.NaN : (double) foundNeighbours.sum() / sampled;
+    }
+
+    public static void main(String[] args) throws URISyntaxException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        double currentTime = 0d;
+        int success = 0, mistakes = 0;
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        int tables = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int hashes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        double width = args.length > 3 ? Double.parseDouble(args[3]) : 100;
+
+        KnnLshClassifier classifier = new KnnLshClassifier(
+                new LshIndex(new TrainingSet(train), tables, hashes, width, 42), k);
+        classifier.setRecallSampling(1);
+        try {
+            Date start, end;
+            start = new Date();
+            for (BankMarketing example : test) {
+                String tag = classifier.classify(example);
+                if (tag.equals(example.getTag())) {
+                    success++;
+                } else {
+                    mistakes++;
+                }
+            }
+            end = new Date();
+
+            currentTime = end.getTime() - start.getTime();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        System.out.println("******************************************");
+        System.out.println("LSH Classifier - K: " + k + ", tables: " + tables + ", hashes: " + hashes + ", width: " + width);
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
+
+        System.out.println("Mean candidates: " + classifier.getMeanCandidates());
+        System.out.println("Fallbacks: " + classifier.getFallbackCount());
+        System.out.println("Recall@" + k + ": " + classifier.getSampledRecall());
+
+        System.out.println("******************************************");
+    }
+}
@@ -0,0 +1,107 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Serial classifier on a {@link MappedTrainingSet}
+ */
+public class KnnMappedClassifier implements KnnClassifier {
+
+    private MappedTrainingSet trainingSet;
+
+    private int k;
+
+    LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+
+    public KnnMappedClassifier(MappedTrainingSet trainingSet, int k) {
+        Objects.requireNonNull(trainingSet);
+
+        this.trainingSet = trainingSet;
+        this.k = k;
+    }
+
+    public KNearest nearest(Sample example) {
+        double[] query = trainingSet.toQuery(example);
+
+        long start = System.nanoTime();
+
+        KNearest nearest = new KNearest(k);
+        trainingSet.scan(query, 0, trainingSet.size(), nearest);
+
+        execAccumulator.accumulate(System.nanoTime() - start);
+
+        return nearest.sort();
+    }
+
+    public String classify(Sample example) {
+        return trainingSet.vote(nearest(example));
+    }
+
+    /**
+     * Classifies the test set against a training set file, args are k and the
+     * path of the file. Without a path bank.data is converted to a temporary file first.
+     */
+    public static void main(String[] args) throws URISyntaxException, IOException {
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        Path path;
+        if (args.length > 1) {
+            path = Paths.get(args[1]);
+        } else {
+            path = Files.createTempFile("bank", ".knn");
+            path.toFile().deleteOnExit();
+            TrainingSetFile.write(BankMarketingLoader.load("bank.data"), path);
+        }
+
+        Date openStart = new Date();
+        MappedTrainingSet trainingSet = MappedTrainingSet.open(path);
+        Date openEnd = new Date();
+        System.out.println("Train: " + trainingSet.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        double currentTime = 0d;
+        int success = 0, mistakes = 0;
+
+        KnnMappedClassifier classifier = new KnnMappedClassifier(trainingSet, k);
+        try {
+            Date start, end;
+            start = new Date();
+            for (BankMarketing example : test) {
+                String tag = classifier.classify(example);
+                if (tag.equals(example.getTag())) {
+                    success++;
+                } else {
+                    mistakes++;
+                }
+            }
+            end = new Date();
+
+            currentTime = end.getTime() - start.getTime();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        System.out.println("******************************************");
+        System.out.println("Mapped Classifier - K: " + k);
+        System.out.println("Open Time: " + (openEnd.getTime() - openStart.getTime()) + " ms.");
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
+
+        System.out.println("Search time: " + classifier.execAccumulator.doubleValue()/1_000_000_000 + " seconds.");
+
+        System.out.println("******************************************");
+    }
+}
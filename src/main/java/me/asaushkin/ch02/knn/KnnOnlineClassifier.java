@@ -0,0 +1,126 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serial classifier on an {@link OnlineTrainingSet}. Every classification runs on the
+ * snapshot taken when it starts, so samples can be added while it is classifying.
+ */
+public class KnnOnlineClassifier implements KnnClassifier {
+
+    private OnlineTrainingSet trainingSet;
+
+    private int k;
+
+    LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+
+    public KnnOnlineClassifier(OnlineTrainingSet trainingSet, int k) {
+        Objects.requireNonNull(trainingSet);
+
+        this.trainingSet = trainingSet;
+        this.k = k;
+    }
+
+    public OnlineTrainingSet getTrainingSet() {
+        return trainingSet;
+    }
+
+    public KNearest nearest(OnlineTrainingSet.Snapshot snapshot, Sample example) {
+        double[] query = snapshot.toQuery(example);
+
+        long start = System.nanoTime();
+
+        KNearest nearest = new KNearest(k);
+        snapshot.scan(query, nearest);
+
+        execAccumulator.accumulate(System.nanoTime() - start);
+
+        return nearest.sort();
+    }
+
+    public String classify(Sample example) {
+        OnlineTrainingSet.Snapshot snapshot = trainingSet.snapshot();
+        return snapshot.vote(nearest(snapshot, example));
+    }
+
+    /**
+     * Classifies the test set with a window of half the training set, first alone and
+     * then while a writer thread keeps adding the other half at the given rows per second
+     */
+    public static void main(String[] args) throws URISyntaxException, InterruptedException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        int window = train.size() / 2;
+        OnlineTrainingSet trainingSet = new OnlineTrainingSet(train.subList(0, window), window);
+        KnnOnlineClassifier classifier = new KnnOnlineClassifier(trainingSet, k);
+
+        classifyTestSet(classifier, test);
+        double alone = classifyTestSet(classifier, test);
+
+        List<BankMarketing> updates = train.subList(window, train.size());
+        long[] added = new long[1];
+        Thread writer = new Thread(() -> {
+            long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            long next = System.nanoTime();
+            for (int i = 0; !Thread.currentThread().isInterrupted(); i = (i + 1) % updates.size()) {
+                trainingSet.add(updates.get(i));
+                added[0]++;
+                next += interval;
+                long delay = next - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+            }
+        });
+
+        long writerStart = System.nanoTime();
+        writer.start();
+        double withWriter = classifyTestSet(classifier, test);
+        writer.interrupt();
+        writer.join();
+        double writerSeconds = (System.nanoTime() - writerStart) / 1_000_000_000d;
+
+        int success = 0, mistakes = 0;
+        for (BankMarketing example : test) {
+            if (classifier.classify(example).equals(example.getTag())) {
+                success++;
+            } else {
+                mistakes++;
+            }
+        }
+
+        System.out.println("******************************************");
+        System.out.println("Online Classifier - K: " + k + ", window: " + window);
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Queries/sec without writer: " + (long) (test.size() / alone));
+        System.out.println("Queries/sec with writer: " + (long) (test.size() / withWriter));
+        System.out.println("Rows added/sec: " + (long) (added[0] / writerSeconds));
+        System.out.println("******************************************");
+    }
+
+    private static double classifyTestSet(KnnOnlineClassifier classifier, List<BankMarketing> test) {
+        long start = System.nanoTime();
+        for (BankMarketing example : test) {
+            classifier.classify(example);
+        }
+        return (System.nanoTime() - start) / 1_000_000_000d;
+    }
+}
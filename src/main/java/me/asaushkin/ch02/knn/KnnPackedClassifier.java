@@ -0,0 +1,95 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Serial classifier on a {@link PackedTrainingSet}, the one-hot columns of the
+ * samples are compared with a popcount instead of a double per column
+ */
+public class KnnPackedClassifier implements KnnClassifier {
+
+    private PackedTrainingSet trainingSet;
+
+    private int k;
+
+    LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+
+    public KnnPackedClassifier(List<? extends Sample> dataSet, int k) {
+        this(new PackedTrainingSet(new TrainingSet(dataSet)), k);
+    }
+
+    public KnnPackedClassifier(PackedTrainingSet trainingSet, int k) {
+        Objects.requireNonNull(trainingSet);
+
+        this.trainingSet = trainingSet;
+        this.k = k;
+    }
+
+    public KNearest nearest(Sample example) {
+        PackedTrainingSet.Query query = trainingSet.toQuery(example);
+
+        long start = System.nanoTime();
+
+        KNearest nearest = new KNearest(k);
+        trainingSet.scan(query, 0, trainingSet.size(), nearest);
+
+        execAccumulator.accumulate(System.nanoTime() - start);
+
+        return nearest.sort();
+    }
+
+    public String classify(Sample example) {
+        return trainingSet.vote(nearest(example));
+    }
+
+    public static void main(String[] args) throws URISyntaxException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        double currentTime = 0d;
+        int success = 0, mistakes = 0;
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        PackedTrainingSet trainingSet = new PackedTrainingSet(new TrainingSet(train));
+        KnnPackedClassifier classifier = new KnnPackedClassifier(trainingSet, k);
+        try {
+            Date start, end;
+            start = new Date();
+            for (BankMarketing example : test) {
+                String tag = classifier.classify(example);
+                if (tag.equals(example.getTag())) {
+                    success++;
+                } else {
+                    mistakes++;
+                }
+            }
+            end = new Date();
+
+            currentTime = end.getTime() - start.getTime();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        System.out.println("******************************************");
+        System.out.println("Packed Classifier - K: " + k);
+        System.out.println("Binary columns: " + trainingSet.binaryColumnCount() + " of " + trainingSet.dimension());
+        System.out.println("Row bytes: " + trainingSet.rowBytes() + " (doubles: " + 8 * trainingSet.dimension() + ")");
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
+
+        System.out.println("Search time: " + classifier.execAccumulator.doubleValue()/1_000_000_000 + " seconds.");
+
+        System.out.println("******************************************");
+    }
+}
@@ -0,0 +1,162 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classifier which scans a {@link QuantizedTrainingSet} for the k * oversampling nearest
+ * rows by the approximate distance and re-ranks them with the exact distances.
+ * <p>
+ * The rows left out of the candidates have an approximate distance of at least the
+ * candidate cutoff, so their exact distance is at least the cutoff minus the error bound.
+ * When that does not beat the exact k-th distance of the candidates, the query is widened
+ * to every row whose approximate distance could still be close enough. Either way the
+ * neighbours are the ones of {@link KnnSerialClassifier}.
+ */
+public class KnnQuantizedClassifier implements KnnClassifier {
+
+    static final int DEFAULT_OVERSAMPLING = 4;
+
+    private QuantizedTrainingSet trainingSet;
+
+    private int k;
+
+    private int oversampling;
+
+    final LongAdder queryCount = new LongAdder();
+    final LongAdder rerankedCount = new LongAdder();
+    final LongAdder widenedCount = new LongAdder();
+
+    public KnnQuantizedClassifier(List<? extends Sample> dataSet, int k, Quantization quantization) throws IOException {
+        this(new QuantizedTrainingSet(dataSet, quantization), k, DEFAULT_OVERSAMPLING);
+    }
+
+    public KnnQuantizedClassifier(QuantizedTrainingSet trainingSet, int k, int oversampling) {
+        Objects.requireNonNull(trainingSet);
+
+        if (oversampling < 1) {
+            throw new IllegalArgumentException("Oversampling must be at least 1: " + oversampling);
+        }
+
+        this.trainingSet = trainingSet;
+        this.k = k;
+        this.oversampling = oversampling;
+    }
+
+    public KNearest nearest(Sample example) {
+        double[] query = trainingSet.toQuery(example);
+        double[] encoded = trainingSet.encode(query);
+        int size = trainingSet.size();
+
+        queryCount.increment();
+
+        KNearest candidates = new KNearest((int) Math.min((long) k * oversampling, Math.max(size, 1)));
+        trainingSet.scan(encoded, 0, size, candidates);
+
+        KNearest nearest = new KNearest(k);
+        for (int i = 0; i < candidates.size(); i++) {
+            int row = candidates.index(i);
+            nearest.offer(row, trainingSet.distance(row, query));
+        }
+        rerankedCount.add(candidates.size());
+
+        double errorBound = trainingSet.errorBound();
+        if (candidates.isFull() && candidates.size() < size
+                && Math.sqrt(candidates.cutoff()) - errorBound <= nearest.cutoff() * TrainingSet.ABANDON_SLACK) {
+            widenedCount.increment();
+
+            // Every row outside the candidates which can still be one of the k nearest
+            double bound = (nearest.cutoff() + errorBound) * TrainingSet.ABANDON_SLACK;
+            double squaredBound = bound * bound;
+            Set<Integer> seen = new HashSet<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                seen.add(candidates.index(i));
+            }
+            for (int row = 0; row < size; row++) {
+                if (!seen.contains(row) && trainingSet.approximateSquaredDistance(row, encoded) <= squaredBound) {
+                    nearest.offer(row, trainingSet.distance(row, query));
+                    rerankedCount.increment();
+                }
+            }
+        }
+
+        return nearest.sort();
+    }
+
+    public String classify(Sample example) {
+        return trainingSet.vote(nearest(example));
+    }
+
+    /**
+     * Mean number of rows with an exact distance per query
+     */
+    public double getMeanReranked() {
+        long queries = queryCount.sum();
+        return queries == 0 ? 0.0d : (double) rerankedCount.sum() / queries;
+    }
+
+    /**
+     * Number of queries whose candidates could not prove the result and were widened
+     */
+    public long getWidenedCount() {
+        return widenedCount.sum();
+    }
+
+    public static void main(String[] args) throws URISyntaxException, IOException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        double currentTime = 0d;
+        int success = 0, mistakes = 0;
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        Quantization quantization = args.length > 1 ? Quantization.valueOf(args[1]) : Quantization.INT8;
+        int oversampling = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_OVERSAMPLING;
+
+        QuantizedTrainingSet trainingSet = new QuantizedTrainingSet(train, quantization);
+        KnnQuantizedClassifier classifier = new KnnQuantizedClassifier(trainingSet, k, oversampling);
+        try {
+            Date start, end;
+            start = new Date();
+            for (BankMarketing example : test) {
+                String tag = classifier.classify(example);
+                if (tag.equals(example.getTag())) {
+                    success++;
+                } else {
+                    mistakes++;
+                }
+            }
+            end = new Date();
+
+            currentTime = end.getTime() - start.getTime();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        System.out.println("******************************************");
+        System.out.println("Quantized Classifier - K: " + k + ", quantization: " + quantization + ", oversampling: " + oversampling);
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
+
+        System.out.println("Feature bytes: " + trainingSet.featureBytes()
+                + ", on the heap: " + trainingSet.heapFeatureBytes()
+                + ", mapped: " + trainingSet.mappedFeatureBytes()
+                + " (heap of a TrainingSet: " + 8L * trainingSet.size() * trainingSet.dimension() + ")");
+        System.out.println("Error bound: " + trainingSet.errorBound());
+        System.out.println("Mean re-ranked rows: " + classifier.getMeanReranked());
+        System.out.println("Widened queries: " + classifier.getWidenedCount());
+
+        System.out.println("******************************************");
+    }
+}
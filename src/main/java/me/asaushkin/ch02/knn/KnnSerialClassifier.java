@@ -3,69 +3,155 @@ package me.asaushkin.ch02.knn;
 import me.asaushkin.ch02.knn.book.*;
 
 import java.net.URISyntaxException;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.atomic.LongAccumulator;
 
-public class KnnSerialClassifier {
+public class KnnSerialClassifier implements KnnClassifier {
 
-    private List<? extends Sample> dataSet;
+    private TrainingSet trainingSet;
 
     private int k;
-    private boolean parallelSort;
+    private Selection selection;
 
     LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
     LongAccumulator sortAccumulator = new LongAccumulator((a, b) -> a + b, 0);
     LongAccumulator collectAccumulator = new LongAccumulator((a, b) -> a + b, 0);
 
+    public KnnSerialClassifier(List<? extends Sample> dataSet, int k) {
+        this(new TrainingSet(dataSet), k, Selection.TOP_K);
+    }
+
+    public KnnSerialClassifier(List<? extends Sample> dataSet, int k, DistanceMetric metric) {
+        this(new TrainingSet(dataSet, metric), k, Selection.TOP_K);
+    }
+
     public KnnSerialClassifier(List<? extends Sample> dataSet, int k, boolean parallelSort) {
-        Objects.requireNonNull(dataSet);
+        this(new TrainingSet(dataSet), k, parallelSort ? Selection.PARALLEL_SORT : Selection.SORT);
+    }
+
+    public KnnSerialClassifier(TrainingSet trainingSet, int k) {
+        this(trainingSet, k, Selection.TOP_K);
+    }
+
+    public KnnSerialClassifier(TrainingSet trainingSet, int k, boolean parallelSort) {
+        this(trainingSet, k, parallelSort ? Selection.PARALLEL_SORT : Selection.SORT);
+    }
 
-        this.dataSet = dataSet;
+    public KnnSerialClassifier(TrainingSet trainingSet, int k, Selection selection) {
+        Objects.requireNonNull(trainingSet);
+        Objects.requireNonNull(selection);
+
+        this.trainingSet = trainingSet;
         this.k = k;
-        this.parallelSort = parallelSort;
+        this.selection = selection;
     }
 
     public String classify(Sample example) {
-        Distance []distances = new Distance[dataSet.size()];
+        if (selection == Selection.TOP_K)
+            return classifyTopK(example);
+
+        double[] query = trainingSet.toQuery(example);
+        Distance []distances = new Distance[trainingSet.size()];
 
-        Instant start = Instant.now();
+        long start = System.nanoTime();
 
-        int i = 0;
-        for (Sample localExample : dataSet) {
+        int i;
+        for (i = 0; i < distances.length; i++) {
             distances[i] = new Distance();
             distances[i].setIndex(i);
-            distances[i].setDistance(EuclideanDistanceCalculator.calculate(localExample, example));
-            i++;
+            distances[i].setDistance(trainingSet.distance(i, query));
         }
 
-        Instant beginSort = Instant.now();
-        execAccumulator.accumulate(Duration.between(start, beginSort).getNano());
+        long beginSort = System.nanoTime();
+        execAccumulator.accumulate(beginSort - start);
 
-        if (parallelSort)
+        if (selection == Selection.PARALLEL_SORT)
             Arrays.parallelSort(distances);
         else
             Arrays.sort(distances);
 
-        Instant beginCollect = Instant.now();
-        sortAccumulator.accumulate(Duration.between(beginSort, beginCollect).getNano());
+        long beginCollect = System.nanoTime();
+        sortAccumulator.accumulate(beginCollect - beginSort);
 
         Map<String, Integer> result = new HashMap<>();
 
         for (i = 0; i < k; i++) {
-            Sample localExample = dataSet.get(distances[i].getIndex());
-            result.merge(localExample.getTag(), 1, (a, b) -> a + b);
+            result.merge(trainingSet.getTag(distances[i].getIndex()), 1, (a, b) -> a + b);
         }
 
         String key = Collections.max(result.entrySet(), Map.Entry.comparingByValue()).getKey();
 
-        Instant end = Instant.now();
-        collectAccumulator.accumulate(Duration.between(beginCollect, end).getNano());
+        collectAccumulator.accumulate(System.nanoTime() - beginCollect);
 
         return key;
     }
 
+    /**
+     * Returns the k nearest rows of the training set sorted by distance
+     */
+    public KNearest nearest(Sample example) {
+        double[] query = trainingSet.toQuery(example);
+        KNearest nearest = new KNearest(k);
+
+        long start = System.nanoTime();
+
+        trainingSet.scan(query, 0, trainingSet.size(), nearest);
+
+        long beginSort = System.nanoTime();
+        execAccumulator.accumulate(beginSort - start);
+
+        nearest.sort();
+
+        sortAccumulator.accumulate(System.nanoTime() - beginSort);
+
+        return nearest;
+    }
+
+    /**
+     * Top-k classification on the buffers of the thread: the query is copied into a reused
+     * vector, the heap is reused and the tags are counted in an int array, so a call
+     * doesn't allocate once the thread has its buffers
+     */
+    private String classifyTopK(Sample example) {
+        Scratch scratch = Scratch.get(k, trainingSet.dimension(), trainingSet.tagCount());
+        double[] query = trainingSet.toQuery(example, scratch.query);
+        KNearest nearest = scratch.nearest;
+
+        long start = System.nanoTime();
+
+        trainingSet.scan(query, 0, trainingSet.size(), nearest);
+
+        long beginCollect = System.nanoTime();
+        execAccumulator.accumulate(beginCollect - start);
+
+        String key = trainingSet.vote(nearest, scratch.votes);
+
+        collectAccumulator.accumulate(System.nanoTime() - beginCollect);
+
+        return key;
+    }
+
+    public List<String> classifyAll(List<? extends Sample> examples) {
+        return classifyAll(examples, false);
+    }
+
+    /**
+     * Classifies a batch of examples tiling queries x training rows into cache sized blocks
+     * @param normExpansion use the precomputed norms of the training rows and a dot product
+     *                      instead of the difference per dimension, only with the euclidean metric
+     */
+    public List<String> classifyAll(List<? extends Sample> examples, boolean normExpansion) {
+        BlockedScan scan = new BlockedScan(trainingSet, k, normExpansion);
+        double[][] queries = scan.toQueries(examples);
+        String[] result = new String[queries.length];
+
+        for (int block = 0; block < scan.blockCount(queries.length); block++) {
+            scan.classifyBlock(queries, block, result);
+        }
+
+        return Arrays.asList(result);
+    }
+
     public static void main(String[] args) throws URISyntaxException {
 
         List<BankMarketing> train = BankMarketingLoader.load("bank.data");
@@ -81,7 +167,9 @@ public class KnnSerialClassifier {
         if (args.length > 0)
             k = Integer.parseInt(args[0]);
 
-        KnnSerialClassifier classifier = new KnnSerialClassifier(train, k, false);
+        DistanceMetric metric = args.length > 1 ? DistanceMetrics.forName(args[1]) : DistanceMetrics.EUCLIDEAN;
+
+        KnnSerialClassifier classifier = new KnnSerialClassifier(train, k, metric);
         try {
             Date start, end;
             start = new Date();
@@ -101,7 +189,7 @@ public class KnnSerialClassifier {
         }
         System.out.println("******************************************");
         System.out.println("Serial Classifier - K: " + k);
-        System.out.println("Is parallel sort: " + classifier.parallelSort);
+        System.out.println("Selection: " + classifier.selection + ", metric: " + metric);
         System.out.println("Success: " + success);
         System.out.println("Mistakes: " + mistakes);
         System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
@@ -0,0 +1,404 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coordinator of a training set partitioned over {@link ShardWorker} processes. Every
+ * query is sent to all the shards at the same time, each shard answers with the k nearest
+ * rows of its slice, and the partial lists are merged into one heap and voted. The rows
+ * keep their numbers in the whole training set, so the result is the same as the one of
+ * a single scan of all the rows.
+ * <p>
+ * Every query has a timeout. A shard which doesn't answer in time, or fails, is left out
+ * of the vote of that query and counted in {@link #getFailureCount()}. The query fails
+ * when fewer shards than the quorum answer, by default all of them must answer, so a vote
+ * on part of the training set is only given when the quorum allows it. The connections to
+ * the shards are kept open and reused by the following queries.
+ */
+public class KnnShardedClassifier implements KnnClassifier, Closeable {
+
+    static final Logger logger = LoggerFactory.getLogger(KnnShardedClassifier.class);
+
+    static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final List<InetSocketAddress> shards;
+
+    private final int k;
+
+    private final int quorum;
+
+    private final int timeoutMillis;
+
+    private final ExecutorService executor;
+
+    private final boolean ownExecutor;
+
+    private final List<Queue<Connection>> idle;
+
+    LongAccumulator execAccumulator = new LongAccumulator((a, b) -> a + b, 0);
+
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Classifier which needs the answers of all the shards
+     * @param executor executor of the requests to the shards, or null to create one
+     */
+    public KnnShardedClassifier(List<InetSocketAddress> shards, int k, long timeout, TimeUnit unit,
+                                ExecutorService executor) {
+        this(shards, k, shards.size(), timeout, unit, executor);
+    }
+
+    /**
+     * @param quorum   minimum number of shards which must answer a query
+     * @param executor executor of the requests to the shards, or null to create one
+     */
+    public KnnShardedClassifier(List<InetSocketAddress> shards, int k, int quorum, long timeout, TimeUnit unit,
+                                ExecutorService executor) {
+        Objects.requireNonNull(shards);
+        Objects.requireNonNull(unit);
+
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("There are no shards");
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("K must be positive: " + k);
+        }
+        if (quorum <= 0 || quorum > shards.size()) {
+            throw new IllegalArgumentException("Wrong quorum: " + quorum + ", shards: " + shards.size());
+        }
+
+        this.shards = new ArrayList<>(shards);
+        this.k = k;
+        this.quorum = quorum;
+        this.timeoutMillis = (int) Math.max(1, Math.min(Integer.MAX_VALUE, unit.toMillis(timeout)));
+        this.ownExecutor = executor == null;
+        this.executor = executor == null ? Executors.newCachedThreadPool() : executor;
+        this.idle = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            idle.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public int getQuorum() {
+        return quorum;
+    }
+
+    /**
+     * Number of shard answers which were missing from a vote
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public String classify(Sample example) throws InterruptedException {
+        String request = toRequest(example.getExample());
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        List<Future<List<Neighbour>>> answers = new ArrayList<>(shards.size());
+        for (int i = 1; i < shards.size(); i++) {
+            int shard = i;
+            answers.add(executor.submit(() -> query(shard, request)));
+        }
+
+        // the calling thread asks the first shard itself
+        KNearest nearest = new KNearest(k);
+        Map<Integer, String> tags = new HashMap<>();
+        int answered = 0;
+        try {
+            merge(query(0, request), nearest, tags);
+            answered++;
+        } catch (IOException | RuntimeException e) {
+            failed(0, e);
+        }
+
+        try {
+            for (int i = 0; i < answers.size(); i++) {
+                try {
+                    merge(answers.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS),
+                            nearest, tags);
+                    answered++;
+                } catch (ExecutionException e) {
+                    failed(i + 1, e.getCause());
+                } catch (TimeoutException e) {
+                    failed(i + 1, e);
+                }
+            }
+        } finally {
+            for (Future<?> answer : answers) {
+                answer.cancel(true);
+            }
+        }
+
+        execAccumulator.accumulate(System.nanoTime() - start);
+
+        if (answered < quorum) {
+            throw new IllegalStateException("Only " + answered + " of " + shards.size()
+                    + " shards answered the query, the quorum is " + quorum);
+        }
+        return vote(nearest, tags);
+    }
+
+    private void failed(int shard, Throwable e) {
+        failures.increment();
+        logger.warn("Shard {} at {} failed: {}", shard, shards.get(shard), e.toString());
+    }
+
+    private static void merge(List<Neighbour> neighbours, KNearest nearest, Map<Integer, String> tags) {
+        for (Neighbour neighbour : neighbours) {
+            if (nearest.offer(neighbour.row, neighbour.distance)) {
+                tags.put(neighbour.row, neighbour.tag);
+            }
+        }
+    }
+
+    /**
+     * Most voted tag of the heap, ties go to the tag which comes first in alphabetical
+     * order, like {@link TrainingSet#vote(KNearest)}
+     */
+    private static String vote(KNearest nearest, Map<Integer, String> tags) {
+        Map<String, Integer> votes = new TreeMap<>();
+        for (int i = 0; i < nearest.size(); i++) {
+            votes.merge(tags.get(nearest.index(i)), 1, Integer::sum);
+        }
+        String best = null;
+        int bestVotes = 0;
+        for (Map.Entry<String, Integer> entry : votes.entrySet()) {
+            if (entry.getValue() > bestVotes) {
+                best = entry.getKey();
+                bestVotes = entry.getValue();
+            }
+        }
+        return best;
+    }
+
+    private String toRequest(double[] query) {
+        StringBuilder ret = new StringBuilder().append(k);
+        for (double value : query) {
+            ret.append(';').append(value);
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Sends the request to a shard on an idle connection, or a new one, and parses the answer.
+     * The connection is reused only if the shard answered in time.
+     */
+    private List<Neighbour> query(int shard, String request) throws IOException {
+        Connection connection = idle.get(shard).poll();
+        if (connection == null) {
+            connection = new Connection(shards.get(shard), timeoutMillis);
+        }
+
+        try {
+            connection.out.write(request);
+            connection.out.write('\n');
+            connection.out.flush();
+
+            String line = connection.in.readLine();
+            if (line == null) {
+                throw new EOFException("Shard closed the connection");
+            }
+            if (line.startsWith("ERROR")) {
+                throw new IOException("Shard error: " + line);
+            }
+            List<Neighbour> ret = parse(line);
+            idle.get(shard).offer(connection);
+            return ret;
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private static List<Neighbour> parse(String line) throws IOException {
+        List<Neighbour> ret = new ArrayList<>();
+        if (line.isEmpty()) {
+            return ret;
+        }
+        for (String item : line.split(";")) {
+            String[] fields = item.split(",", 3);
+            if (fields.length != 3) {
+                throw new IOException("Bad answer: " + item);
+            }
+            try {
+                ret.add(new Neighbour(Double.parseDouble(fields[0]), Integer.parseInt(fields[1]), fields[2]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad answer: " + item, e);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public void close() {
+        for (Queue<Connection> connections : idle) {
+            Connection connection;
+            while ((connection = connections.poll()) != null) {
+                connection.close();
+            }
+        }
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Starts a worker process for every slice of the training set, on consecutive ports
+     * from the base port, and returns once all of them accept connections
+     */
+    static List<Process> startWorkers(String dataPath, int rows, int count, int basePort) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> workers = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                int startRow = (int) ((long) rows * i / count);
+                int endRow = (int) ((long) rows * (i + 1) / count);
+                workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        ShardWorker.class.getName(), String.valueOf(basePort + i), dataPath,
+                        String.valueOf(startRow), String.valueOf(endRow))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+            for (Process worker : workers) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null && !line.startsWith(ShardWorker.READY)) {
+                    // skip the output before the worker is ready
+                }
+                if (line == null) {
+                    throw new IOException("A worker ended before it was ready");
+                }
+                System.out.println("Worker " + line);
+            }
+        } catch (IOException | RuntimeException e) {
+            workers.forEach(Process::destroy);
+            throw e;
+        }
+        return workers;
+    }
+
+    /**
+     * Classifies the test set with the training set in 1 worker and then split over N
+     * workers, started as local processes
+     */
+    public static void main(String[] args) throws URISyntaxException, IOException, InterruptedException {
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int basePort = args.length > 2 ? Integer.parseInt(args[2]) : 2300;
+        long timeout = args.length > 3 ? Long.parseLong(args[3]) : 5000;
+
+        int rows = BankMarketingLoader.load("bank.data").size();
+        System.out.println("Train: " + rows);
+
+        for (int shards : new int[]{1, count}) {
+            List<Process> workers = startWorkers("bank.data", rows, shards, basePort);
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < shards; i++) {
+                addresses.add(new InetSocketAddress("localhost", basePort + i));
+            }
+
+            try (KnnShardedClassifier classifier = new KnnShardedClassifier(addresses, k, timeout, TimeUnit.MILLISECONDS, null)) {
+                // the first pass opens the connections and warms up the workers
+                classifier.classifyAll(test);
+
+                int success = 0, mistakes = 0;
+                Date start = new Date();
+                for (BankMarketing example : test) {
+                    String tag = classifier.classify(example);
+                    if (tag.equals(example.getTag())) {
+                        success++;
+                    } else {
+                        mistakes++;
+                    }
+                }
+                Date end = new Date();
+
+                System.out.println("******************************************");
+                System.out.println("Sharded Classifier - K: " + k + ", shards: " + shards);
+                System.out.println("Success: " + success);
+                System.out.println("Mistakes: " + mistakes);
+                System.out.println("Shard failures: " + classifier.getFailureCount());
+                System.out.println("Execution Time: " + ((end.getTime() - start.getTime()) / 1000.0) + " seconds.");
+                System.out.println("Queries/sec: " + (long) (test.size() * 1000.0 / Math.max(1, end.getTime() - start.getTime())));
+                System.out.println("******************************************");
+            } finally {
+                workers.forEach(Process::destroy);
+                for (Process worker : workers) {
+                    worker.waitFor();
+                }
+            }
+        }
+    }
+
+    static final class Neighbour {
+
+        final double distance;
+
+        final int row;
+
+        final String tag;
+
+        Neighbour(double distance, int row, String tag) {
+            this.distance = distance;
+            this.row = row;
+            this.tag = tag;
+        }
+    }
+
+    static final class Connection {
+
+        final Socket socket;
+
+        final BufferedReader in;
+
+        final Writer out;
+
+        Connection(InetSocketAddress address, int timeoutMillis) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("Can't close the connection: {}", e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.*;
+
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Classifier which expresses the distance and select stages as a parallel stream
+ * over the training rows, the k nearest rows are voted by the training set. It runs
+ * on the common fork/join pool.
+ */
+public class KnnStreamClassifier implements KnnClassifier {
+
+    private TrainingSet trainingSet;
+
+    private int k;
+
+    public KnnStreamClassifier(List<? extends Sample> dataSet, int k) {
+        this(new TrainingSet(dataSet), k);
+    }
+
+    public KnnStreamClassifier(List<? extends Sample> dataSet, int k, DistanceMetric metric) {
+        this(new TrainingSet(dataSet, metric), k);
+    }
+
+    public KnnStreamClassifier(TrainingSet trainingSet, int k) {
+        Objects.requireNonNull(trainingSet);
+
+        this.trainingSet = trainingSet;
+        this.k = k;
+    }
+
+    public String classify(Sample example) {
+
+        double[] query = trainingSet.toQuery(example);
+
+        Supplier<KNearest> supplier = () -> new KNearest(k);
+        ObjIntConsumer<KNearest> accumulator = (nearest, i) -> trainingSet.offer(i, query, nearest);
+        BiConsumer<KNearest, KNearest> combiner = KNearest::merge;
+
+        KNearest nearest = IntStream.range(0, trainingSet.size())
+                .parallel()
+                .collect(supplier, accumulator, combiner);
+
+        if (nearest.size() == 0) {
+            throw new IllegalStateException("The training set is empty");
+        }
+        return trainingSet.vote(nearest);
+    }
+
+    public static void main(String[] args) throws URISyntaxException {
+
+        List<BankMarketing> train = BankMarketingLoader.load("bank.data");
+        System.out.println("Train: " + train.size());
+
+        List<BankMarketing> test = BankMarketingLoader.load("bank.test");
+        System.out.println("Test: " + test.size());
+
+        double currentTime = 0d;
+        int success = 0, mistakes = 0;
+
+        int k = 10;
+        if (args.length > 0)
+            k = Integer.parseInt(args[0]);
+
+        KnnStreamClassifier classifier = new KnnStreamClassifier(train, k);
+        try {
+            Date start, end;
+            start = new Date();
+            for (BankMarketing example : test) {
+                String tag = classifier.classify(example);
+                if (tag.equals(example.getTag())) {
+                    success++;
+                } else {
+                    mistakes++;
+                }
+            }
+            end = new Date();
+
+            currentTime = end.getTime() - start.getTime();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        System.out.println("******************************************");
+        System.out.println("Parallel Stream Classifier - K: " + k);
+        System.out.println("Success: " + success);
+        System.out.println("Mistakes: " + mistakes);
+        System.out.println("Execution Time: " + (currentTime / 1000) + " seconds.");
+        System.out.println("******************************************");
+    }
+}
@@ -0,0 +1,126 @@
+package me.asaushkin.ch02.knn;
+
+import java.util.*;
+
+/**
+ * Locality sensitive hashing index for the euclidean distance (p-stable scheme).
+ * Every table hashes a row with several functions h(v) = floor((a.v + b) / w), where a
+ * has gaussian components and b is uniform in [0, w), and stores the row in the bucket
+ * of the combined hashes. The rows sharing a bucket with the query in any table are
+ * the candidates of the query.
+ */
+public final class LshIndex {
+
+    private final TrainingSet trainingSet;
+
+    private final int tables;
+
+    private final int hashesPerTable;
+
+    private final double bucketWidth;
+
+    /**
+     * projections[table][hash] is the vector a of the function
+     */
+    private final double[][][] projections;
+
+    private final double[][] offsets;
+
+    private final List<Map<Long, int[]>> buckets;
+
+    public LshIndex(TrainingSet trainingSet, int tables, int hashesPerTable, double bucketWidth, long seed) {
+        Objects.requireNonNull(trainingSet);
+
+        if (tables < 0 || hashesPerTable <= 0 || bucketWidth <= 0) {
+            throw new IllegalArgumentException("Wrong parameters: tables=" + tables
+                    + ", hashesPerTable=" + hashesPerTable + ", bucketWidth=" + bucketWidth);
+        }
+
+        this.trainingSet = trainingSet;
+        this.tables = tables;
+        this.hashesPerTable = hashesPerTable;
+        this.bucketWidth = bucketWidth;
+
+        Random random = new Random(seed);
+        int dimension = trainingSet.dimension();
+
+        this.projections = new double[tables][hashesPerTable][dimension];
+        this.offsets = new double[tables][hashesPerTable];
+        for (int t = 0; t < tables; t++) {
+            for (int h = 0; h < hashesPerTable; h++) {
+                for (int i = 0; i < dimension; i++) {
+                    projections[t][h][i] = random.nextGaussian();
+                }
+                offsets[t][h] = random.nextDouble() * bucketWidth;
+            }
+        }
+
+        this.buckets = new ArrayList<>(tables);
+        for (int t = 0; t < tables; t++) {
+            Map<Long, List<Integer>> table = new HashMap<>();
+            double[] row = new double[dimension];
+            for (int r = 0; r < trainingSet.size(); r++) {
+                for (int i = 0; i < dimension; i++) {
+                    row[i] = trainingSet.getFeature(r, i);
+                }
+                table.computeIfAbsent(hash(t, row), key -> new ArrayList<>()).add(r);
+            }
+
+            Map<Long, int[]> packed = new HashMap<>(table.size() * 2);
+            for (Map.Entry<Long, List<Integer>> entry : table.entrySet()) {
+                packed.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+            buckets.add(packed);
+        }
+    }
+
+    public TrainingSet getTrainingSet() {
+        return trainingSet;
+    }
+
+    public int getTables() {
+        return tables;
+    }
+
+    public int getHashesPerTable() {
+        return hashesPerTable;
+    }
+
+    public double getBucketWidth() {
+        return bucketWidth;
+    }
+
+    private long hash(int table, double[] vector) {
+        long key = 1125899906842597L;
+        for (int h = 0; h < hashesPerTable; h++) {
+            double[] a = projections[table][h];
+            double dot = 0.0d;
+            for (int i = 0; i < vector.length; i++) {
+                dot += a[i] * vector[i];
+            }
+            key = 31 * key + (long) Math.floor((dot + offsets[table][h]) / bucketWidth);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the candidate rows of the query sorted by row, or null if the index has no
+     * tables and every row is a candidate
+     */
+    public int[] candidates(double[] query) {
+        if (tables == 0) {
+            return null;
+        }
+
+        BitSet seen = new BitSet(trainingSet.size());
+        for (int t = 0; t < tables; t++) {
+            int[] bucket = buckets.get(t).get(hash(t, query));
+            if (bucket != null) {
+                for (int row : bucket) {
+                    seen.set(row);
+                }
+            }
+        }
+        return seen.stream().toArray();
+    }
+}
@@ -0,0 +1,203 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Training set read straight from a memory mapped {@link TrainingSetFile}. Opening it
+ * only parses the header, the features are read from the page cache when a scan
+ * touches them, and every JVM mapping the same file shares the same pages.
+ * <p>
+ * A mapping can't be bigger than 2GB, so the features are mapped in segments of
+ * whole rows. The header is checked when the file is opened, so a corrupt header fails
+ * there with an {@link IOException}. A tag ordinal is checked when it is read, so the
+ * tags are not faulted in before the first query touches them.
+ */
+public final class MappedTrainingSet {
+
+    private static final int HEADER_LIMIT = 1 << 16;
+
+    private final int size;
+
+    private final int dimension;
+
+    private final String[] tagNames;
+
+    private final int rowsPerSegment;
+
+    private final DoubleBuffer[] segments;
+
+    private final IntBuffer tags;
+
+    private MappedTrainingSet(int size, int dimension, String[] tagNames, int rowsPerSegment,
+                              DoubleBuffer[] segments, IntBuffer tags) {
+        this.size = size;
+        this.dimension = dimension;
+        this.tagNames = tagNames;
+        this.rowsPerSegment = rowsPerSegment;
+        this.segments = segments;
+        this.tags = tags;
+    }
+
+    public static MappedTrainingSet open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, HEADER_LIMIT))
+                    .order(TrainingSetFile.ORDER);
+            if (header.remaining() < 20 || header.getInt() != TrainingSetFile.MAGIC) {
+                throw new IOException("Not a training set file: " + path);
+            }
+            int version = header.getInt();
+            if (version != TrainingSetFile.VERSION) {
+                throw new IOException("Unsupported training set file version: " + version);
+            }
+            int size = header.getInt();
+            int dimension = header.getInt();
+            int tagCount = header.getInt();
+            if (size < 0 || dimension < 0 || tagCount < 0) {
+                throw new IOException("Bad training set file header, size: " + size
+                        + ", dimension: " + dimension + ", tags: " + tagCount);
+            }
+            if (tagCount > header.remaining() / 2) {
+                throw new IOException("The tags don't fit in the header: " + tagCount);
+            }
+            String[] tagNames = new String[tagCount];
+            for (int i = 0; i < tagNames.length; i++) {
+                int length = header.remaining() < 2 ? -1 : header.getShort();
+                if (length < 0 || length > header.remaining()) {
+                    throw new IOException("The tags don't fit in the header: " + path);
+                }
+                byte[] bytes = new byte[length];
+                header.get(bytes);
+                tagNames[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            long featuresOffset = (header.position() + 7) & ~7L;
+            long rowBytes = 8L * dimension;
+            if (rowBytes > Integer.MAX_VALUE) {
+                throw new IOException("Bad training set file header, dimension: " + dimension);
+            }
+            long tagsOffset = featuresOffset + rowBytes * size;
+            if (fileSize != tagsOffset + 4L * size) {
+                throw new IOException("Training set file is truncated: " + path);
+            }
+
+            int rowsPerSegment = rowBytes == 0 ? Math.max(size, 1) : (int) (Integer.MAX_VALUE / rowBytes);
+            DoubleBuffer[] segments = new DoubleBuffer[(size + rowsPerSegment - 1) / rowsPerSegment];
+            for (int i = 0; i < segments.length; i++) {
+                long firstRow = (long) i * rowsPerSegment;
+                long rows = Math.min(rowsPerSegment, size - firstRow);
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                        featuresOffset + firstRow * rowBytes, rows * rowBytes);
+                segments[i] = segment.order(TrainingSetFile.ORDER).asDoubleBuffer();
+            }
+
+            IntBuffer tags = channel.map(FileChannel.MapMode.READ_ONLY, tagsOffset, 4L * size)
+                    .order(TrainingSetFile.ORDER).asIntBuffer();
+
+            return new MappedTrainingSet(size, dimension, tagNames, rowsPerSegment, segments, tags);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int tagCount() {
+        return tagNames.length;
+    }
+
+    public int tagOf(int row) {
+        int ordinal = tags.get(row);
+        if (ordinal < 0 || ordinal >= tagNames.length) {
+            throw new IllegalStateException("Bad tag ordinal " + ordinal + " at row " + row);
+        }
+        return ordinal;
+    }
+
+    public String tagName(int ordinal) {
+        return tagNames[ordinal];
+    }
+
+    public String getTag(int row) {
+        return tagNames[tagOf(row)];
+    }
+
+    /**
+     * Returns the ordinal of the tag or a negative value if the tag is unknown
+     */
+    public int ordinalOf(String tag) {
+        return Arrays.binarySearch(tagNames, tag);
+    }
+
+    public double getFeature(int row, int column) {
+        return segments[row / rowsPerSegment].get((row % rowsPerSegment) * dimension + column);
+    }
+
+    public double[] toQuery(Sample example) {
+        return TrainingSet.checkLength(example.getExample(), dimension);
+    }
+
+    public double squaredDistance(int row, double[] query) {
+        return squaredDistance(segments[row / rowsPerSegment], (row % rowsPerSegment) * dimension, query);
+    }
+
+    private double squaredDistance(DoubleBuffer segment, int offset, double[] query) {
+        double ret = 0.0d;
+        for (int i = 0; i < dimension; i++) {
+            double diff = segment.get(offset + i) - query[i];
+            ret += diff * diff;
+        }
+        return ret;
+    }
+
+    public double distance(int row, double[] query) {
+        return Math.sqrt(squaredDistance(row, query));
+    }
+
+    /**
+     * Offers the rows in [startIndex, endIndex) to the heap. The loop walks the
+     * segments so the row doesn't have to be split on every distance.
+     */
+    public void scan(double[] query, int startIndex, int endIndex, KNearest nearest) {
+        int row = startIndex;
+        while (row < endIndex) {
+            int segmentIndex = row / rowsPerSegment;
+            DoubleBuffer segment = segments[segmentIndex];
+            int segmentEnd = (int) Math.min(endIndex, (long) (segmentIndex + 1) * rowsPerSegment);
+            for (int offset = (row % rowsPerSegment) * dimension; row < segmentEnd; row++, offset += dimension) {
+                double squared = squaredDistance(segment, offset, query);
+                double cutoff = nearest.cutoff();
+                if (cutoff == Double.POSITIVE_INFINITY || squared <= cutoff * cutoff * TrainingSet.ABANDON_SLACK) {
+                    nearest.offer(row, Math.sqrt(squared));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the most voted tag among the rows of the heap, see {@link TrainingSet#vote(KNearest)}
+     */
+    public String vote(KNearest nearest) {
+        int[] votes = new int[tagNames.length];
+        for (int i = 0; i < nearest.size(); i++) {
+            votes[tagOf(nearest.index(i))]++;
+        }
+        return tagNames[TrainingSet.mostVoted(votes)];
+    }
+}
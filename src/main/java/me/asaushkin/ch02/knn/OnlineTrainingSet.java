@@ -0,0 +1,273 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Training set which accepts new samples while it is being queried. The rows are
+ * appended to fixed size segments, and every append publishes a new immutable
+ * {@link Snapshot} through a volatile field. A reader takes the current snapshot and
+ * scans it without locks; the rows visible in a snapshot are never written again, so
+ * an in-flight classification always sees the same rows.
+ * <p>
+ * With a window size the set keeps only the most recent rows. The expired segments
+ * are dropped from the next snapshots and collected once no reader holds them.
+ */
+public final class OnlineTrainingSet {
+
+    static final int SEGMENT_SIZE = 4096;
+
+    private static final DistanceKernel KERNEL = DistanceKernels.get();
+
+    private final int dimension;
+
+    private final int windowSize;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates an empty set
+     * @param windowSize the number of most recent rows to keep, or 0 to keep all of them
+     */
+    public OnlineTrainingSet(int dimension, int windowSize) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Dimension must be positive: " + dimension);
+        }
+        if (windowSize < 0) {
+            throw new IllegalArgumentException("Window size can't be negative: " + windowSize);
+        }
+        this.dimension = dimension;
+        this.windowSize = windowSize;
+        this.snapshot = new Snapshot(dimension, new Segment[0], 0, 0, new String[0], new int[0], new String[0], 0);
+    }
+
+    public OnlineTrainingSet(List<? extends Sample> dataSet, int windowSize) {
+        this(dimensionOf(dataSet), windowSize);
+        addAll(dataSet);
+    }
+
+    private static int dimensionOf(List<? extends Sample> dataSet) {
+        Objects.requireNonNull(dataSet);
+        if (dataSet.isEmpty()) {
+            throw new IllegalArgumentException("Can't take the dimension of an empty data set");
+        }
+        return dataSet.get(0).getExample().length;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int windowSize() {
+        return windowSize;
+    }
+
+    /**
+     * The rows visible to the queries started from now on
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public void add(Sample sample) {
+        addAll(Collections.singletonList(sample));
+    }
+
+    /**
+     * Appends the samples and publishes them with a single snapshot. Writers are
+     * serialized, readers are never blocked.
+     */
+    public synchronized void addAll(List<? extends Sample> samples) {
+        Snapshot current = snapshot;
+        Segment[] segments = current.segments;
+        int lastSize = current.lastSize;
+        String[] tagNames = current.tagNames;
+        long firstRow = current.firstRow;
+
+        for (Sample sample : samples) {
+            double[] example = sample.getExample();
+            if (example.length != dimension) {
+                throw new IllegalArgumentException("Vector doesn't have the same length");
+            }
+
+            int tag = indexOf(tagNames, sample.getTag());
+            if (tag < 0) {
+                tagNames = Arrays.copyOf(tagNames, tagNames.length + 1);
+                tag = tagNames.length - 1;
+                tagNames[tag] = sample.getTag();
+            }
+
+            if (segments.length == 0 || lastSize == SEGMENT_SIZE) {
+                segments = Arrays.copyOf(segments, segments.length + 1);
+                segments[segments.length - 1] = new Segment(dimension);
+                lastSize = 0;
+            }
+            segments[segments.length - 1].set(lastSize++, example, tag);
+        }
+
+        long rows = (long) (segments.length - 1) * SEGMENT_SIZE + lastSize - firstRow;
+        if (windowSize > 0 && rows > windowSize) {
+            firstRow += rows - windowSize;
+            int expired = (int) (firstRow / SEGMENT_SIZE);
+            if (expired > 0) {
+                segments = Arrays.copyOfRange(segments, expired, segments.length);
+                firstRow -= (long) expired * SEGMENT_SIZE;
+            }
+        }
+
+        if (tagNames == current.tagNames) {
+            snapshot = new Snapshot(dimension, segments, lastSize, (int) firstRow, tagNames,
+                    current.ranks, current.sortedNames, current.version + 1);
+        } else {
+            String[] sortedNames = tagNames.clone();
+            Arrays.sort(sortedNames);
+            int[] ranks = new int[tagNames.length];
+            for (int i = 0; i < tagNames.length; i++) {
+                ranks[i] = Arrays.binarySearch(sortedNames, tagNames[i]);
+            }
+            snapshot = new Snapshot(dimension, segments, lastSize, (int) firstRow, tagNames,
+                    ranks, sortedNames, current.version + 1);
+        }
+    }
+
+    private static int indexOf(String[] tagNames, String tag) {
+        for (int i = 0; i < tagNames.length; i++) {
+            if (tagNames[i].equals(tag)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rows of a segment, each row is written once before the snapshot that shows it is published
+     */
+    static final class Segment {
+
+        final double[] features;
+
+        final int[] tags = new int[SEGMENT_SIZE];
+
+        Segment(int dimension) {
+            this.features = new double[SEGMENT_SIZE * dimension];
+        }
+
+        void set(int row, double[] example, int tag) {
+            System.arraycopy(example, 0, features, row * example.length, example.length);
+            tags[row] = tag;
+        }
+    }
+
+    /**
+     * Consistent view of the rows of the set. The rows are numbered from 0 in the order
+     * they were added, so a scan gives the same neighbours as a {@link TrainingSet} of
+     * the same samples.
+     */
+    public static final class Snapshot {
+
+        private final int dimension;
+
+        private final Segment[] segments;
+
+        /**
+         * Rows written in the last segment
+         */
+        private final int lastSize;
+
+        /**
+         * First visible row of the first segment
+         */
+        private final int firstRow;
+
+        private final String[] tagNames;
+
+        /**
+         * Position of every tag ordinal in alphabetical order
+         */
+        private final int[] ranks;
+
+        private final String[] sortedNames;
+
+        private final int size;
+
+        private final long version;
+
+        Snapshot(int dimension, Segment[] segments, int lastSize, int firstRow, String[] tagNames,
+                 int[] ranks, String[] sortedNames, long version) {
+            this.dimension = dimension;
+            this.segments = segments;
+            this.lastSize = lastSize;
+            this.firstRow = firstRow;
+            this.tagNames = tagNames;
+            this.ranks = ranks;
+            this.sortedNames = sortedNames;
+            this.size = segments.length == 0 ? 0 : (segments.length - 1) * SEGMENT_SIZE + lastSize - firstRow;
+            this.version = version;
+        }
+
+        /**
+         * Number of appends published before this snapshot, it changes whenever the rows do
+         */
+        public long version() {
+            return version;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int dimension() {
+            return dimension;
+        }
+
+        public String getTag(int row) {
+            int position = row + firstRow;
+            return tagNames[segments[position / SEGMENT_SIZE].tags[position % SEGMENT_SIZE]];
+        }
+
+        public double[] toQuery(Sample example) {
+            double[] query = example.getExample();
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("Vector doesn't have the same length");
+            }
+            return query;
+        }
+
+        /**
+         * Offers all the rows of the snapshot to the heap
+         */
+        public void scan(double[] query, KNearest nearest) {
+            int row = 0;
+            for (int s = 0; s < segments.length; s++) {
+                double[] features = segments[s].features;
+                int start = s == 0 ? firstRow : 0;
+                int end = s == segments.length - 1 ? lastSize : SEGMENT_SIZE;
+                for (int i = start; i < end; i++, row++) {
+                    double squared = KERNEL.squaredEuclidean(features, i * dimension, query, dimension);
+                    double cutoff = nearest.cutoff();
+                    if (cutoff == Double.POSITIVE_INFINITY || squared <= cutoff * cutoff * TrainingSet.ABANDON_SLACK) {
+                        nearest.offer(row, Math.sqrt(squared));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the most voted tag among the rows of the heap, see {@link TrainingSet#vote(KNearest)}.
+         * The tags are numbered in the order they arrived, so the votes are counted by
+         * their alphabetical rank, which are the ordinals of a {@link TrainingSet}.
+         */
+        public String vote(KNearest nearest) {
+            int[] votes = new int[sortedNames.length];
+            for (int i = 0; i < nearest.size(); i++) {
+                int position = nearest.index(i) + firstRow;
+                votes[ranks[segments[position / SEGMENT_SIZE].tags[position % SEGMENT_SIZE]]]++;
+            }
+            return sortedNames[TrainingSet.mostVoted(votes)];
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.util.Objects;
+
+/**
+ * Training set which packs the columns holding only 0 and 1 into a bitset per row
+ * and keeps the other columns as doubles. On 0/1 values the squared difference is
+ * the xor of the bits, so the binary part of the squared euclidean distance is
+ * {@code Long.bitCount(a ^ b)} summed over the words of the row.
+ * <p>
+ * The distances are the ones of {@link TrainingSet} up to the rounding of the sum,
+ * which adds the columns in a different order.
+ */
+public final class PackedTrainingSet {
+
+    private final int size;
+
+    private final int dimension;
+
+    /**
+     * Columns of the training set stored as doubles, in the order of the numeric array
+     */
+    private final int[] numericColumns;
+
+    /**
+     * Columns of the training set stored as bits, column binaryColumns[i] is bit i of the row
+     */
+    private final int[] binaryColumns;
+
+    private final int words;
+
+    private final double[] numeric;
+
+    private final long[] bits;
+
+    private final int[] tags;
+
+    private final String[] tagNames;
+
+    public PackedTrainingSet(TrainingSet trainingSet) {
+        Objects.requireNonNull(trainingSet);
+
+        this.size = trainingSet.size();
+        this.dimension = trainingSet.dimension();
+        this.tags = trainingSet.tags();
+        this.tagNames = trainingSet.tagNames();
+
+        boolean[] binary = new boolean[dimension];
+        int binaryCount = 0;
+        for (int column = 0; column < dimension; column++) {
+            binary[column] = true;
+            for (int row = 0; row < size && binary[column]; row++) {
+                double value = trainingSet.getFeature(row, column);
+                binary[column] = value == 0.0d || value == 1.0d;
+            }
+            if (binary[column]) {
+                binaryCount++;
+            }
+        }
+
+        this.binaryColumns = new int[binaryCount];
+        this.numericColumns = new int[dimension - binaryCount];
+        for (int column = 0, b = 0, n = 0; column < dimension; column++) {
+            if (binary[column]) {
+                binaryColumns[b++] = column;
+            } else {
+                numericColumns[n++] = column;
+            }
+        }
+
+        this.words = (binaryCount + 63) >>> 6;
+        this.numeric = new double[size * numericColumns.length];
+        this.bits = new long[size * words];
+
+        for (int row = 0; row < size; row++) {
+            for (int i = 0; i < numericColumns.length; i++) {
+                numeric[row * numericColumns.length + i] = trainingSet.getFeature(row, numericColumns[i]);
+            }
+            for (int i = 0; i < binaryColumns.length; i++) {
+                if (trainingSet.getFeature(row, binaryColumns[i]) == 1.0d) {
+                    bits[row * words + (i >>> 6)] |= 1L << i;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int binaryColumnCount() {
+        return binaryColumns.length;
+    }
+
+    /**
+     * Bytes taken by the features of one row
+     */
+    public int rowBytes() {
+        return 8 * (numericColumns.length + words);
+    }
+
+    public String getTag(int row) {
+        return tagNames[tags[row]];
+    }
+
+    /**
+     * Splits the example into the numeric and the packed part of the query
+     */
+    public Query toQuery(Sample example) {
+        double[] vector = example.getExample();
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Vector doesn't have the same length");
+        }
+        return new Query(vector);
+    }
+
+    /**
+     * A query split like the rows of the set. If one of the binary columns of the query
+     * holds something else than 0 or 1 the popcount doesn't apply, and that query is
+     * scored column by column.
+     */
+    public final class Query {
+
+        private final double[] vector;
+
+        private final double[] numericPart;
+
+        private final long[] bitsPart;
+
+        private final boolean binary;
+
+        Query(double[] vector) {
+            this.vector = vector;
+            this.numericPart = new double[numericColumns.length];
+            for (int i = 0; i < numericColumns.length; i++) {
+                numericPart[i] = vector[numericColumns[i]];
+            }
+
+            boolean isBinary = true;
+            this.bitsPart = new long[words];
+            for (int i = 0; i < binaryColumns.length; i++) {
+                double value = vector[binaryColumns[i]];
+                if (value == 1.0d) {
+                    bitsPart[i >>> 6] |= 1L << i;
+                } else if (value != 0.0d) {
+                    isBinary = false;
+                }
+            }
+            this.binary = isBinary;
+        }
+    }
+
+    public double squaredDistance(int row, Query query) {
+        double ret = 0.0d;
+        int offset = row * numericColumns.length;
+        for (int i = 0; i < numericColumns.length; i++) {
+            double diff = numeric[offset + i] - query.numericPart[i];
+            ret += diff * diff;
+        }
+
+        offset = row * words;
+        if (query.binary) {
+            int differentBits = 0;
+            for (int i = 0; i < words; i++) {
+                differentBits += Long.bitCount(bits[offset + i] ^ query.bitsPart[i]);
+            }
+            return ret + differentBits;
+        }
+
+        for (int i = 0; i < binaryColumns.length; i++) {
+            double value = (bits[offset + (i >>> 6)] >>> i) & 1L;
+            double diff = value - query.vector[binaryColumns[i]];
+            ret += diff * diff;
+        }
+        return ret;
+    }
+
+    public double distance(int row, Query query) {
+        return Math.sqrt(squaredDistance(row, query));
+    }
+
+    /**
+     * Offers the rows in [startIndex, endIndex) to the heap, the square root is taken
+     * only for the rows which beat the current cutoff
+     */
+    public void scan(Query query, int startIndex, int endIndex, KNearest nearest) {
+        for (int row = startIndex; row < endIndex; row++) {
+            double squared = squaredDistance(row, query);
+            double cutoff = nearest.cutoff();
+            if (cutoff == Double.POSITIVE_INFINITY || squared <= cutoff * cutoff * TrainingSet.ABANDON_SLACK) {
+                nearest.offer(row, Math.sqrt(squared));
+            }
+        }
+    }
+
+    /**
+     * Returns the most voted tag among the rows of the heap, see {@link TrainingSet#vote(KNearest)}
+     */
+    public String vote(KNearest nearest) {
+        int[] votes = new int[tagNames.length];
+        for (int i = 0; i < nearest.size(); i++) {
+            votes[tags[nearest.index(i)]]++;
+        }
+        return tagNames[TrainingSet.mostVoted(votes)];
+    }
+}
@@ -0,0 +1,452 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.BankMarketing;
+import me.asaushkin.ch02.knn.book.BankMarketingLoader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * Loader of the Bank Marketing data set which maps the file, splits it into chunks that
+ * start and end on a line boundary and parses the chunks in parallel straight from the
+ * bytes. The numbers are parsed without creating a String, and the rows of a chunk share
+ * the String of their target. It gives the same examples as {@link BankMarketingLoader}.
+ */
+public final class ParallelBankMarketingLoader {
+
+    static final int COLUMNS = 66;
+
+    private static final byte BYTE = 0, INT = 1, FLOAT = 2;
+
+    /**
+     * Types of the attributes of {@link BankMarketing}, the numbers are narrowed to them
+     */
+    private static final byte[] TYPES = new byte[COLUMNS];
+
+    static {
+        TYPES[53] = INT;
+        TYPES[55] = INT;
+        for (int i = 61; i < COLUMNS; i++) {
+            TYPES[i] = FLOAT;
+        }
+    }
+
+    /**
+     * Powers of ten that are exact floats
+     */
+    private static final float[] FLOAT_POWERS = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    private ParallelBankMarketingLoader() {
+    }
+
+    public static List<BankMarketing> load(String dataPath) throws URISyntaxException, IOException {
+        return load(dataPath, Integer.MAX_VALUE);
+    }
+
+    public static List<BankMarketing> load(String dataPath, int maxLines) throws URISyntaxException, IOException {
+        return load(resource(dataPath), maxLines);
+    }
+
+    /**
+     * Loads at most maxLines lines of the file as BankMarketing examples
+     */
+    public static List<BankMarketing> load(Path file, int maxLines) throws IOException {
+        Chunk[] chunks = parse(file, maxLines);
+
+        List<List<BankMarketing>> parts = new ArrayList<>(chunks.length);
+        for (int i = 0; i < chunks.length; i++) {
+            parts.add(null);
+        }
+        IntStream.range(0, chunks.length).parallel().forEach(i -> parts.set(i, chunks[i].toExamples()));
+
+        List<BankMarketing> dataSet = new ArrayList<>();
+        for (List<BankMarketing> part : parts) {
+            dataSet.addAll(part);
+        }
+        return dataSet;
+    }
+
+    public static TrainingSet loadTrainingSet(String dataPath, int maxLines) throws URISyntaxException, IOException {
+        return loadTrainingSet(resource(dataPath), maxLines);
+    }
+
+    public static TrainingSet loadTrainingSet(String dataPath, int startRow, int endRow) throws URISyntaxException, IOException {
+        return loadTrainingSet(resource(dataPath), startRow, endRow);
+    }
+
+    private static Path resource(String dataPath) throws URISyntaxException, IOException {
+        URL url = ClassLoader.getSystemResource(dataPath);
+        if (url == null) {
+            throw new FileNotFoundException("Resource not found: " + dataPath);
+        }
+        return Paths.get(url.toURI());
+    }
+
+    /**
+     * Loads at most maxLines lines of the file straight into a training set,
+     * without an object per row
+     */
+    public static TrainingSet loadTrainingSet(Path file, int maxLines) throws IOException {
+        return loadTrainingSet(file, 0, maxLines);
+    }
+
+    /**
+     * Loads the rows [startRow, endRow) of the file straight into a training set. The rows
+     * are counted like the parser does, without the blank lines, so row i of the set is row
+     * startRow + i of the whole file. The rows before startRow are skipped without being parsed.
+     */
+    public static TrainingSet loadTrainingSet(Path file, int startRow, int endRow) throws IOException {
+        Chunk[] chunks = parse(file, startRow, endRow);
+
+        TreeSet<String> names = new TreeSet<>();
+        int size = 0;
+        for (Chunk chunk : chunks) {
+            names.addAll(chunk.tagNames);
+            size += chunk.rows;
+        }
+        String[] tagNames = names.toArray(new String[names.size()]);
+
+        double[] features = new double[size * COLUMNS];
+        int[] tags = new int[size];
+        int row = 0;
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.features, 0, features, row * COLUMNS, chunk.rows * COLUMNS);
+            for (int i = 0; i < chunk.rows; i++) {
+                tags[row + i] = Arrays.binarySearch(tagNames, chunk.tagNames.get(chunk.tags[i]));
+            }
+            row += chunk.rows;
+        }
+        return new TrainingSet(features, COLUMNS, tags, tagNames);
+    }
+
+    private static Chunk[] parse(Path file, int maxLines) throws IOException {
+        return parse(file, 0, maxLines);
+    }
+
+    private static Chunk[] parse(Path file, int startRow, int endRow) throws IOException {
+        ByteBuffer[] buffers;
+        long[] bounds;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = lineLimit(channel, startRow);
+            long end = Math.max(start, lineLimit(channel, endRow));
+            bounds = chunkBounds(channel, start, end);
+            buffers = new ByteBuffer[bounds.length - 1];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+            }
+        }
+
+        Chunk[] chunks = new Chunk[buffers.length];
+        IntStream.range(0, chunks.length).parallel().forEach(i -> chunks[i] = new Chunk(buffers[i], bounds[i]));
+        return chunks;
+    }
+
+    /**
+     * Returns the offset after the maxLines-th line, or the size of the file. Blank lines
+     * are not counted, as they don't give a row.
+     */
+    private static long lineLimit(FileChannel channel, int maxLines) throws IOException {
+        long size = channel.size();
+        if (maxLines == Integer.MAX_VALUE) {
+            return size;
+        }
+        int lines = 0;
+        boolean blank = true;
+        for (long start = 0; start < size && lines < maxLines; start += MAX_CHUNK_SIZE) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(MAX_CHUNK_SIZE, size - start));
+            for (int i = 0; i < window.limit(); i++) {
+                byte b = window.get(i);
+                if (b == '\n') {
+                    if (!blank && ++lines == maxLines) {
+                        return start + i + 1;
+                    }
+                    blank = true;
+                } else if (b != '\r') {
+                    blank = false;
+                }
+            }
+        }
+        return maxLines <= 0 ? 0 : size;
+    }
+
+    /**
+     * Splits [start, end) into ranges which start at the beginning of a line, start
+     * must be the beginning of a line
+     */
+    private static long[] chunkBounds(FileChannel channel, long start, long end) throws IOException {
+        long length = end - start;
+        int parts = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4L, length / MIN_CHUNK_SIZE));
+        parts = (int) Math.max(parts, (length + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+        long[] bounds = new long[parts + 1];
+        bounds[0] = start;
+        bounds[parts] = end;
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int i = 1; i < parts; i++) {
+            long position = Math.max(bounds[i - 1], start + length / parts * i);
+            bounds[i] = end;
+            search:
+            while (position < end) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int j = 0; j < read; j++) {
+                    if (buffer.get(j) == '\n') {
+                        bounds[i] = Math.min(end, position + j + 1);
+                        break search;
+                    }
+                }
+                position += read;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Rows parsed from a range of the file, the features are stored like in {@link TrainingSet}
+     */
+    static final class Chunk {
+
+        private final ByteBuffer buffer;
+
+        private final long offset;
+
+        private int position;
+
+        double[] features = new double[64 * COLUMNS];
+
+        int[] tags = new int[64];
+
+        int rows;
+
+        final List<String> tagNames = new ArrayList<>();
+
+        private final List<byte[]> tagBytes = new ArrayList<>();
+
+        Chunk(ByteBuffer buffer, long offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+
+            int limit = buffer.limit();
+            while (position < limit) {
+                byte b = buffer.get(position);
+                if (b == '\n' || b == '\r') {
+                    position++;
+                } else {
+                    parseLine(limit);
+                }
+            }
+        }
+
+        private void parseLine(int limit) {
+            if (rows == tags.length) {
+                tags = Arrays.copyOf(tags, rows * 2);
+                features = Arrays.copyOf(features, rows * 2 * COLUMNS);
+            }
+
+            int base = rows * COLUMNS;
+            for (int column = 0; column < COLUMNS; column++) {
+                features[base + column] = parseNumber(TYPES[column], limit);
+                if (position >= limit || buffer.get(position) != ';') {
+                    throw error("Wrong data length");
+                }
+                position++;
+            }
+
+            int start = position;
+            while (position < limit && buffer.get(position) != '\n' && buffer.get(position) != '\r') {
+                if (buffer.get(position) == ';') {
+                    throw error("Wrong data length");
+                }
+                position++;
+            }
+            tags[rows++] = tagOf(start, position);
+        }
+
+        private int tagOf(int start, int end) {
+            int length = end - start;
+            search:
+            for (int i = 0; i < tagBytes.size(); i++) {
+                byte[] bytes = tagBytes.get(i);
+                if (bytes.length != length) {
+                    continue;
+                }
+                for (int j = 0; j < length; j++) {
+                    if (bytes[j] != buffer.get(start + j)) {
+                        continue search;
+                    }
+                }
+                return i;
+            }
+            byte[] bytes = new byte[length];
+            for (int j = 0; j < length; j++) {
+                bytes[j] = buffer.get(start + j);
+            }
+            tagBytes.add(bytes);
+            tagNames.add(new String(bytes, StandardCharsets.UTF_8));
+            return tagBytes.size() - 1;
+        }
+
+        /**
+         * Parses the number at the current position and narrows it to the type like the
+         * valueOf methods in {@link BankMarketing#setData(String[])}. Plain decimals are
+         * parsed from the bytes, anything else falls back to the String parsers.
+         */
+        private double parseNumber(byte type, int limit) {
+            int start = position;
+            boolean negative = false;
+            if (position < limit && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negative = buffer.get(position) == '-';
+                position++;
+            }
+
+            long mantissa = 0;
+            int digits = 0, significant = 0, scale = 0;
+            boolean fraction = false, simple = true;
+            for (; position < limit; position++) {
+                byte b = buffer.get(position);
+                if (b >= '0' && b <= '9') {
+                    digits++;
+                    if (mantissa != 0 || b != '0') {
+                        significant++;
+                    }
+                    if (significant > 18) {
+                        simple = false;
+                    } else {
+                        mantissa = mantissa * 10 + (b - '0');
+                    }
+                    if (fraction) {
+                        scale++;
+                    }
+                } else if (b == '.' && !fraction) {
+                    fraction = true;
+                } else if (b == ';' || b == '\n' || b == '\r') {
+                    break;
+                } else {
+                    simple = false;
+                }
+            }
+            if (digits == 0) {
+                simple = false;
+            }
+
+            try {
+                if (type == FLOAT) {
+                    if (simple && mantissa < (1 << 24) && scale < FLOAT_POWERS.length) {
+                        // Both operands are exact floats, so the division rounds like Float.valueOf
+                        float value = mantissa / FLOAT_POWERS[scale];
+                        return negative ? -value : value;
+                    }
+                    return Float.parseFloat(text(start));
+                }
+
+                long value;
+                if (simple && !fraction) {
+                    value = negative ? -mantissa : mantissa;
+                } else {
+                    value = Long.parseLong(text(start));
+                }
+                if (type == BYTE ? value != (byte) value : value != (int) value) {
+                    throw new NumberFormatException("Value out of range: " + value);
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                throw error(e.getMessage());
+            }
+        }
+
+        private String text(int start) {
+            byte[] bytes = new byte[position - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at byte " + (offset + position));
+        }
+
+        List<BankMarketing> toExamples() {
+            List<BankMarketing> ret = new ArrayList<>(rows);
+            for (int row = 0; row < rows; row++) {
+                BankMarketing example = new BankMarketing();
+                example.setData(Arrays.copyOfRange(features, row * COLUMNS, (row + 1) * COLUMNS),
+                        tagNames.get(tags[row]));
+                ret.add(example);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Compares the loaders on a resource of the data set, args are the resource and
+     * how many copies of it to load, the copies are written to a temporary file
+     */
+    public static void main(String[] args) throws URISyntaxException, IOException {
+        String resource = args.length > 0 ? args[0] : "bank.data";
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        Path file = Paths.get(ClassLoader.getSystemResource(resource).toURI());
+        if (copies > 1) {
+            byte[] content = Files.readAllBytes(file);
+            file = Files.createTempFile("bank", ".data");
+            file.toFile().deleteOnExit();
+            for (int i = 0; i < copies; i++) {
+                Files.write(file, content, StandardOpenOption.APPEND);
+            }
+        }
+
+        long start = System.nanoTime();
+        List<BankMarketing> expected = BankMarketingLoader.load(file, Integer.MAX_VALUE);
+        long serialTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<BankMarketing> actual = load(file, Integer.MAX_VALUE);
+        long parallelTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        TrainingSet trainingSet = loadTrainingSet(file, Integer.MAX_VALUE);
+        long trainingSetTime = System.nanoTime() - start;
+
+        boolean same = expected.size() == actual.size() && trainingSet.size() == actual.size();
+        for (int i = 0; same && i < expected.size(); i++) {
+            same = Arrays.equals(expected.get(i).getExample(), actual.get(i).getExample())
+                    && expected.get(i).getTag().equals(actual.get(i).getTag());
+        }
+
+        System.out.println("******************************************");
+        System.out.println("Rows: " + actual.size() + ", same examples: " + same);
+        report("BankMarketingLoader", expected.size(), serialTime);
+        report("Parallel loader", actual.size(), parallelTime);
+        report("Parallel loader, training set", trainingSet.size(), trainingSetTime);
+        System.out.println("******************************************");
+    }
+
+    private static void report(String name, int rows, long nanos) {
+        System.out.println(name + ": " + nanos / 1_000_000 + " ms, "
+                + (long) (rows / (nanos / 1_000_000_000d)) + " rows/sec.");
+    }
+}
@@ -0,0 +1,18 @@
+package me.asaushkin.ch02.knn;
+
+/**
+ * How a {@link QuantizedTrainingSet} stores the features
+ */
+public enum Quantization {
+
+    /**
+     * Every feature narrowed to a float, 4 bytes per feature
+     */
+    FLOAT32,
+
+    /**
+     * Every feature scaled to the [min, max] range of its column and rounded
+     * to one of 256 levels, 1 byte per feature
+     */
+    INT8
+}
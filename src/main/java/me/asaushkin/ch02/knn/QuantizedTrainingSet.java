@@ -0,0 +1,254 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Training set which keeps the features on the heap as floats or as scaled bytes instead
+ * of doubles. The scan computes approximate squared distances on the quantized rows, the
+ * exact distances are computed only for the rows picked by the scan, from the doubles of
+ * a {@link MappedTrainingSet}. The doubles stay in the page cache, off the heap, and only
+ * the pages of the re-ranked rows are read.
+ * <p>
+ * While quantizing, the set measures how far the quantized copy of a row can be from
+ * the row itself. By the triangle inequality the approximate distance of a row is never
+ * further than {@link #errorBound()} from the exact one, which lets the caller prove
+ * that a re-ranked candidate set holds the exact k nearest rows.
+ */
+public final class QuantizedTrainingSet {
+
+    private final MappedTrainingSet exact;
+
+    private final Quantization quantization;
+
+    private final int size;
+
+    private final int dimension;
+
+    /**
+     * Row-major features of the FLOAT32 mode
+     */
+    private final float[] floats;
+
+    /**
+     * Row-major unsigned levels of the INT8 mode, a feature is minimum + step * level
+     */
+    private final byte[] levels;
+
+    private final double[] minimum;
+
+    private final double[] step;
+
+    private final double[] weight;
+
+    private final double errorBound;
+
+    /**
+     * Writes the samples to a temporary {@link TrainingSetFile}, deleted when the JVM exits,
+     * and quantizes the mapped file
+     */
+    public QuantizedTrainingSet(List<? extends Sample> dataSet, Quantization quantization) throws IOException {
+        this(MappedTrainingSet.open(temporaryFile(dataSet)), quantization);
+    }
+
+    /**
+     * Quantizes the rows of the mapped training set, which is kept for the exact distances
+     */
+    public QuantizedTrainingSet(MappedTrainingSet exact, Quantization quantization) {
+        Objects.requireNonNull(exact);
+        Objects.requireNonNull(quantization);
+
+        this.exact = exact;
+        this.quantization = quantization;
+        this.size = exact.size();
+        this.dimension = exact.dimension();
+
+        this.minimum = new double[dimension];
+        this.step = new double[dimension];
+        this.weight = new double[dimension];
+
+        if (quantization == Quantization.INT8) {
+            double[] maximum = new double[dimension];
+            Arrays.fill(minimum, Double.POSITIVE_INFINITY);
+            Arrays.fill(maximum, Double.NEGATIVE_INFINITY);
+            for (int row = 0; row < size; row++) {
+                for (int i = 0; i < dimension; i++) {
+                    double value = exact.getFeature(row, i);
+                    minimum[i] = Math.min(minimum[i], value);
+                    maximum[i] = Math.max(maximum[i], value);
+                }
+            }
+            for (int i = 0; i < dimension; i++) {
+                step[i] = maximum[i] > minimum[i] ? (maximum[i] - minimum[i]) / 255 : 1.0d;
+                weight[i] = step[i] * step[i];
+            }
+            this.floats = null;
+            this.levels = new byte[size * dimension];
+        } else {
+            this.floats = new float[size * dimension];
+            this.levels = null;
+        }
+
+        double[] columnError = new double[dimension];
+        for (int row = 0; row < size; row++) {
+            int offset = row * dimension;
+            for (int i = 0; i < dimension; i++) {
+                double value = exact.getFeature(row, i);
+                double restored;
+                if (levels != null) {
+                    long level = Math.round((value - minimum[i]) / step[i]);
+                    levels[offset + i] = (byte) level;
+                    restored = minimum[i] + step[i] * level;
+                } else {
+                    floats[offset + i] = (float) value;
+                    restored = floats[offset + i];
+                }
+                columnError[i] = Math.max(columnError[i], Math.abs(value - restored));
+            }
+        }
+
+        double sum = 0.0d;
+        for (double error : columnError) {
+            sum += error * error;
+        }
+        this.errorBound = Math.sqrt(sum);
+    }
+
+    /**
+     * Maps a training set file and quantizes it
+     */
+    public static QuantizedTrainingSet open(Path path, Quantization quantization) throws IOException {
+        return new QuantizedTrainingSet(MappedTrainingSet.open(path), quantization);
+    }
+
+    private static Path temporaryFile(List<? extends Sample> dataSet) throws IOException {
+        Path path = Files.createTempFile("quantized", ".knn");
+        path.toFile().deleteOnExit();
+        TrainingSetFile.write(dataSet, path);
+        return path;
+    }
+
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int tagOf(int row) {
+        return exact.tagOf(row);
+    }
+
+    public String getTag(int row) {
+        return exact.getTag(row);
+    }
+
+    /**
+     * The mapped training set of the exact distances
+     */
+    public MappedTrainingSet getTrainingSet() {
+        return exact;
+    }
+
+    /**
+     * The largest distance between a row and its quantized copy
+     */
+    public double errorBound() {
+        return errorBound;
+    }
+
+    /**
+     * Bytes taken by the features: the quantized ones on the heap and the mapped doubles
+     * of the exact distances
+     */
+    public long featureBytes() {
+        return heapFeatureBytes() + mappedFeatureBytes();
+    }
+
+    /**
+     * Bytes of the quantized features, the only ones on the heap
+     */
+    public long heapFeatureBytes() {
+        return levels != null ? levels.length : 4L * floats.length;
+    }
+
+    /**
+     * Bytes of the doubles of the mapped training set, read through the page cache
+     */
+    public long mappedFeatureBytes() {
+        return 8L * size * dimension;
+    }
+
+    public double[] toQuery(Sample example) {
+        return exact.toQuery(example);
+    }
+
+    /**
+     * Converts the query to the coordinates of the quantized rows, the argument
+     * of {@link #approximateSquaredDistance(int, double[])} and {@link #scan(double[], int, int, KNearest)}
+     */
+    public double[] encode(double[] query) {
+        if (levels == null) {
+            return query;
+        }
+        double[] ret = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            ret[i] = (query[i] - minimum[i]) / step[i];
+        }
+        return ret;
+    }
+
+    public double approximateSquaredDistance(int row, double[] encoded) {
+        double ret = 0.0d;
+        int offset = row * dimension;
+        if (levels != null) {
+            for (int i = 0; i < dimension; i++) {
+                double diff = (levels[offset + i] & 0xFF) - encoded[i];
+                ret += weight[i] * diff * diff;
+            }
+        } else {
+            for (int i = 0; i < dimension; i++) {
+                double diff = floats[offset + i] - encoded[i];
+                ret += diff * diff;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Offers the rows in [startIndex, endIndex) to the heap with their approximate squared distances
+     */
+    public void scan(double[] encoded, int startIndex, int endIndex, KNearest nearest) {
+        for (int row = startIndex; row < endIndex; row++) {
+            double distance = approximateSquaredDistance(row, encoded);
+            if (distance <= nearest.cutoff()) {
+                nearest.offer(row, distance);
+            }
+        }
+    }
+
+    /**
+     * Exact euclidean distance on the mapped doubles
+     */
+    public double distance(int row, double[] query) {
+        return exact.distance(row, query);
+    }
+
+    /**
+     * Returns the most voted tag among the rows of the heap, see {@link MappedTrainingSet#vote(KNearest)}
+     */
+    public String vote(KNearest nearest) {
+        return exact.vote(nearest);
+    }
+}
@@ -0,0 +1,39 @@
+package me.asaushkin.ch02.knn;
+
+/**
+ * Buffers of a classification kept by every thread, so that classifying in a steady
+ * state doesn't allocate. The buffers are replaced only when a classifier with another
+ * k, dimension or number of tags runs on the thread.
+ */
+final class Scratch {
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    double[] query = new double[0];
+
+    int[] votes = new int[0];
+
+    KNearest nearest;
+
+    private Scratch() {
+    }
+
+    /**
+     * Returns the buffers of the current thread, with an empty heap of capacity k
+     */
+    static Scratch get(int k, int dimension, int tagCount) {
+        Scratch scratch = SCRATCH.get();
+        if (scratch.query.length != dimension) {
+            scratch.query = new double[dimension];
+        }
+        if (scratch.votes.length != tagCount) {
+            scratch.votes = new int[tagCount];
+        }
+        if (scratch.nearest == null || scratch.nearest.capacity() != k) {
+            scratch.nearest = new KNearest(k);
+        } else {
+            scratch.nearest.clear();
+        }
+        return scratch;
+    }
+}
@@ -0,0 +1,22 @@
+package me.asaushkin.ch02.knn;
+
+/**
+ * How a classifier picks the k nearest rows from the computed distances
+ */
+public enum Selection {
+
+    /**
+     * Bounded max-heap of size k, O(n log k)
+     */
+    TOP_K,
+
+    /**
+     * Full {@link java.util.Arrays#sort(Object[])} of the distances, kept for comparison
+     */
+    SORT,
+
+    /**
+     * Full {@link java.util.Arrays#parallelSort(Comparable[])} of the distances, kept for comparison
+     */
+    PARALLEL_SORT
+}
@@ -0,0 +1,168 @@
+package me.asaushkin.ch02.knn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process which holds a slice of the training set and answers the partial k nearest
+ * queries of a {@link KnnShardedClassifier}. Every connection is served by its own
+ * thread and carries any number of requests, one line each:
+ * <pre>
+ *     k;feature1;...;featureN
+ * </pre>
+ * The answer is a line with the k nearest rows of the slice, nearest first, as
+ * {@code distance,row,tag} separated by ';'. The rows are numbered like in the whole
+ * training set, so the coordinator can merge the answers of all the shards with the
+ * same order as a single scan. The row numbers count only the data rows of the file,
+ * the blank lines are skipped like the loaders do.
+ */
+public final class ShardWorker implements Closeable {
+
+    static final Logger logger = LoggerFactory.getLogger(ShardWorker.class);
+
+    /**
+     * Line printed on the standard output once the worker accepts connections
+     */
+    static final String READY = "READY";
+
+    private final TrainingSet trainingSet;
+
+    private final int firstRow;
+
+    private final ServerSocket serverSocket;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "shard-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param firstRow number of the first row of the slice in the whole training set
+     */
+    public ShardWorker(TrainingSet trainingSet, int firstRow, int port) throws IOException {
+        Objects.requireNonNull(trainingSet);
+
+        this.trainingSet = trainingSet;
+        this.firstRow = firstRow;
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the worker is closed
+     */
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> handle(socket));
+            } catch (SocketException e) {
+                // closed
+            } catch (IOException e) {
+                logger.warn("Can't accept a connection", e);
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(answer(line));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.debug("Connection closed: {}", e.toString());
+        }
+    }
+
+    String answer(String line) {
+        String[] data = line.split(";");
+        if (data.length != trainingSet.dimension() + 1) {
+            return "ERROR;Bad Command";
+        }
+
+        int k;
+        double[] query = new double[trainingSet.dimension()];
+        try {
+            k = Integer.parseInt(data[0]);
+            for (int i = 0; i < query.length; i++) {
+                query[i] = Double.parseDouble(data[i + 1]);
+            }
+        } catch (NumberFormatException e) {
+            return "ERROR;Bad Command";
+        }
+        if (k <= 0) {
+            return "ERROR;Bad Command";
+        }
+
+        KNearest nearest = new KNearest(Math.min(k, Math.max(1, trainingSet.size())));
+        trainingSet.scan(query, 0, trainingSet.size(), nearest);
+        nearest.sort();
+
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < nearest.size(); i++) {
+            if (i > 0) {
+                ret.append(';');
+            }
+            ret.append(nearest.distance(i)).append(',')
+                    .append(firstRow + nearest.index(i)).append(',')
+                    .append(trainingSet.getTag(nearest.index(i)));
+        }
+        return ret.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Loads the rows [startRow, endRow) of a data file, the rows before the slice are skipped
+     * without being parsed
+     */
+    static TrainingSet loadSlice(String dataPath, int startRow, int endRow) throws IOException, URISyntaxException {
+        return ParallelBankMarketingLoader.loadTrainingSet(dataPath, startRow, endRow);
+    }
+
+    /**
+     * Serves the rows [startRow, endRow) of a data file: port dataPath startRow endRow
+     */
+    public static void main(String[] args) throws IOException, URISyntaxException {
+        if (args.length != 4) {
+            System.err.println("Usage: ShardWorker port dataPath startRow endRow");
+            System.exit(1);
+        }
+
+        int port = Integer.parseInt(args[0]);
+        int startRow = Integer.parseInt(args[2]);
+        int endRow = Integer.parseInt(args[3]);
+
+        TrainingSet trainingSet = loadSlice(args[1], startRow, endRow);
+
+        try (ShardWorker worker = new ShardWorker(trainingSet, startRow, port)) {
+            System.out.println(READY + " " + worker.getPort() + " rows " + trainingSet.size());
+            System.out.flush();
+            worker.serve();
+        }
+    }
+}
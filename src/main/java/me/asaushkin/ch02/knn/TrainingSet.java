@@ -0,0 +1,339 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Immutable training set which keeps the features of all the samples in one
+ * contiguous row-major array and the tags as int ordinals, so the distance loops
+ * can scan it without calling {@link Sample#getExample()} for every row.
+ * <p>
+ * The distances of the classifiers are the ones of the {@link DistanceMetric} of the
+ * set, euclidean unless another one is given.
+ */
+public final class TrainingSet {
+
+    private final int size;
+
+    private final int dimension;
+
+    private final double[] features;
+
+    private final int[] tags;
+
+    private final String[] tagNames;
+
+    /**
+     * Columns sorted by decreasing variance, the order of the bounded distance
+     */
+    private final int[] columnOrder;
+
+    /**
+     * Relative slack of the cutoff of the bounded distance. Summing in another order
+     * may round the squared distance differently by a few ulps, so a row is abandoned
+     * only when its partial sum is clearly bigger than the cutoff.
+     */
+    static final double ABANDON_SLACK = 1 + 1e-9;
+
+    private static final DistanceKernel KERNEL = DistanceKernels.get();
+
+    private final DistanceMetric metric;
+
+    private volatile double[] squaredNorms;
+
+    public TrainingSet(List<? extends Sample> dataSet) {
+        this(dataSet, DistanceMetrics.EUCLIDEAN);
+    }
+
+    public TrainingSet(List<? extends Sample> dataSet, DistanceMetric metric) {
+        Objects.requireNonNull(dataSet);
+        Objects.requireNonNull(metric);
+
+        this.metric = metric;
+
+        this.size = dataSet.size();
+
+        TreeSet<String> names = new TreeSet<>();
+        for (Sample sample : dataSet) {
+            names.add(sample.getTag());
+        }
+        this.tagNames = names.toArray(new String[names.size()]);
+
+        this.dimension = size == 0 ? 0 : dataSet.get(0).getExample().length;
+        this.features = new double[size * dimension];
+        this.tags = new int[size];
+
+        int row = 0;
+        for (Sample sample : dataSet) {
+            double[] example = sample.getExample();
+            if (example.length != dimension) {
+                throw new IllegalArgumentException("Vector doesn't have the same length: row " + row);
+            }
+            System.arraycopy(example, 0, features, row * dimension, dimension);
+            tags[row] = Arrays.binarySearch(tagNames, sample.getTag());
+            row++;
+        }
+
+        this.columnOrder = columnsByVariance();
+    }
+
+    TrainingSet(double[] features, int dimension, int[] tags, String[] tagNames) {
+        if (features.length != tags.length * dimension) {
+            throw new IllegalArgumentException("Features don't match the number of rows");
+        }
+        this.size = tags.length;
+        this.dimension = dimension;
+        this.features = features;
+        this.tags = tags;
+        this.tagNames = tagNames;
+        this.columnOrder = columnsByVariance();
+        this.metric = DistanceMetrics.EUCLIDEAN;
+    }
+
+    private TrainingSet(TrainingSet trainingSet, DistanceMetric metric) {
+        this.size = trainingSet.size;
+        this.dimension = trainingSet.dimension;
+        this.features = trainingSet.features;
+        this.tags = trainingSet.tags;
+        this.tagNames = trainingSet.tagNames;
+        this.columnOrder = trainingSet.columnOrder;
+        this.squaredNorms = trainingSet.squaredNorms;
+        this.metric = metric;
+    }
+
+    /**
+     * Returns a training set with the same rows and another metric, the rows are not copied
+     */
+    public TrainingSet withMetric(DistanceMetric metric) {
+        Objects.requireNonNull(metric);
+        return metric == this.metric ? this : new TrainingSet(this, metric);
+    }
+
+    public DistanceMetric metric() {
+        return metric;
+    }
+
+    private int[] columnsByVariance() {
+        double[] variance = new double[dimension];
+        for (int column = 0; column < dimension; column++) {
+            double mean = 0.0d, m2 = 0.0d;
+            for (int row = 0; row < size; row++) {
+                double value = features[row * dimension + column];
+                double delta = value - mean;
+                mean += delta / (row + 1);
+                m2 += delta * (value - mean);
+            }
+            variance[column] = m2;
+        }
+
+        Integer[] order = new Integer[dimension];
+        for (int i = 0; i < dimension; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(variance[b], variance[a]));
+
+        int[] ret = new int[dimension];
+        for (int i = 0; i < dimension; i++) {
+            ret[i] = order[i];
+        }
+        return ret;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int tagCount() {
+        return tagNames.length;
+    }
+
+    public int tagOf(int row) {
+        return tags[row];
+    }
+
+    public String tagName(int ordinal) {
+        return tagNames[ordinal];
+    }
+
+    public String getTag(int row) {
+        return tagNames[tags[row]];
+    }
+
+    /**
+     * Returns the ordinal of the tag or a negative value if the tag is unknown
+     */
+    public int ordinalOf(String tag) {
+        return Arrays.binarySearch(tagNames, tag);
+    }
+
+    public double getFeature(int row, int column) {
+        return features[row * dimension + column];
+    }
+
+    /**
+     * Converts the example to the query vector and checks that it has the dimension
+     * of the training set
+     */
+    public double[] toQuery(Sample example) {
+        return checkLength(example.getExample(), dimension);
+    }
+
+    static double[] checkLength(double[] query, int dimension) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("Vector doesn't have the same length");
+        }
+        return query;
+    }
+
+    /**
+     * Copies the example to the query vector without allocating it, both must have
+     * the dimension of the training set
+     */
+    public double[] toQuery(Sample example, double[] query) {
+        if (query.length != dimension || example.getDimension() != dimension) {
+            throw new IllegalArgumentException("Vector doesn't have the same length");
+        }
+        example.copyExample(query);
+        return query;
+    }
+
+    /**
+     * Squared euclidean distance, whatever the metric of the set is
+     */
+    public double squaredDistance(int row, double[] query) {
+        return KERNEL.squaredEuclidean(features, row * dimension, query, dimension);
+    }
+
+    /**
+     * Distance of the metric of the set
+     */
+    public double distance(int row, double[] query) {
+        if (metric == DistanceMetrics.EUCLIDEAN) {
+            return Math.sqrt(squaredDistance(row, query));
+        }
+        return metric.distance(features, row * dimension, query, dimension);
+    }
+
+    /**
+     * Squared distance summed over the columns with the largest variance first. It stops
+     * as soon as the partial sum is bigger than the bound.
+     * @return the squared distance, or {@link Double#POSITIVE_INFINITY} if the row was abandoned
+     */
+    public double squaredDistanceBounded(int row, double[] query, double bound) {
+        double ret = 0.0d;
+        int offset = row * dimension;
+        for (int i = 0; i < dimension; i++) {
+            int column = columnOrder[i];
+            double diff = features[offset + column] - query[column];
+            ret += diff * diff;
+            if (ret > bound) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Offers the row to the heap, skipping most of the arithmetic for the rows which
+     * can't beat the current k-th distance. The rows that survive are offered with
+     * {@link #distance(int, double[])}, so the heap ends up with the same rows and
+     * distances as a plain scan.
+     */
+    public void offer(int row, double[] query, KNearest nearest) {
+        if (metric != DistanceMetrics.EUCLIDEAN) {
+            metric.scan(features, dimension, query, row, row + 1, nearest);
+            return;
+        }
+        double cutoff = nearest.cutoff();
+        if (cutoff != Double.POSITIVE_INFINITY
+                && squaredDistanceBounded(row, query, cutoff * cutoff * ABANDON_SLACK) == Double.POSITIVE_INFINITY) {
+            return;
+        }
+        nearest.offer(row, distance(row, query));
+    }
+
+    /**
+     * Offers the rows in [startIndex, endIndex) to the heap
+     */
+    public void scan(double[] query, int startIndex, int endIndex, KNearest nearest) {
+        if (metric != DistanceMetrics.EUCLIDEAN) {
+            metric.scan(features, dimension, query, startIndex, endIndex, nearest);
+            return;
+        }
+        for (int row = startIndex; row < endIndex; row++) {
+            offer(row, query, nearest);
+        }
+    }
+
+    /**
+     * Returns the most voted tag among the rows of the heap. Ties go
+     * to the tag with the lowest ordinal.
+     */
+    public String vote(KNearest nearest) {
+        return vote(nearest, new int[tagNames.length]);
+    }
+
+    /**
+     * Like {@link #vote(KNearest)}, counting in the given array of {@link #tagCount()} counters
+     */
+    public String vote(KNearest nearest, int[] votes) {
+        Arrays.fill(votes, 0);
+        for (int i = 0; i < nearest.size(); i++) {
+            votes[tags[nearest.index(i)]]++;
+        }
+        return tagNames[mostVoted(votes)];
+    }
+
+    /**
+     * Ordinal with the most votes, the lowest one on a tie
+     */
+    static int mostVoted(int[] votes) {
+        int best = 0;
+        for (int i = 1; i < votes.length; i++) {
+            if (votes[i] > votes[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Squared euclidean norm of every row, computed on the first call
+     */
+    double[] squaredNorms() {
+        double[] norms = squaredNorms;
+        if (norms == null) {
+            norms = new double[size];
+            for (int row = 0; row < size; row++) {
+                double sum = 0.0d;
+                int offset = row * dimension;
+                for (int i = 0; i < dimension; i++) {
+                    sum += features[offset + i] * features[offset + i];
+                }
+                norms[row] = sum;
+            }
+            squaredNorms = norms;
+        }
+        return norms;
+    }
+
+    double[] features() {
+        return features;
+    }
+
+    int[] tags() {
+        return tags;
+    }
+
+    String[] tagNames() {
+        return tagNames;
+    }
+}
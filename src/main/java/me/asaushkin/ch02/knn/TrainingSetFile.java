@@ -0,0 +1,126 @@
+package me.asaushkin.ch02.knn;
+
+import me.asaushkin.ch02.knn.book.BankMarketing;
+import me.asaushkin.ch02.knn.book.BankMarketingLoader;
+import me.asaushkin.ch02.knn.book.Sample;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Binary training set format read by {@link MappedTrainingSet}. All the values are little endian.
+ * <pre>
+ * int    magic "KNN1"
+ * int    version
+ * int    rows
+ * int    dimension
+ * int    tag count, then per tag a short length and the UTF-8 bytes of the name
+ *        zero padding to a multiple of 8
+ * double features, rows * dimension in row-major order
+ * int    tag ordinals, one per row
+ * </pre>
+ * The tag names are sorted, so the ordinals are the ones of {@link TrainingSet}.
+ */
+public final class TrainingSetFile {
+
+    static final int MAGIC = 0x4B4E4E31;
+
+    static final int VERSION = 1;
+
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private TrainingSetFile() {
+    }
+
+    /**
+     * Writes the samples to the file, replacing it if it exists
+     */
+    public static void write(List<? extends Sample> dataSet, Path path) throws IOException {
+        Objects.requireNonNull(dataSet);
+        Objects.requireNonNull(path);
+
+        TreeSet<String> names = new TreeSet<>();
+        for (Sample sample : dataSet) {
+            names.add(sample.getTag());
+        }
+        String[] tagNames = names.toArray(new String[names.size()]);
+        int dimension = dataSet.isEmpty() ? 0 : dataSet.get(0).getExample().length;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ORDER);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(dataSet.size()).putInt(dimension).putInt(tagNames.length);
+            for (String name : tagNames) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > Short.MAX_VALUE || bytes.length + 2 > buffer.remaining()) {
+                    throw new IOException("Tag name is too long: " + name);
+                }
+                buffer.putShort((short) bytes.length).put(bytes);
+            }
+            while (buffer.position() % 8 != 0) {
+                buffer.put((byte) 0);
+            }
+
+            for (Sample sample : dataSet) {
+                double[] example = sample.getExample();
+                if (example.length != dimension) {
+                    throw new IllegalArgumentException("Vector doesn't have the same length");
+                }
+                for (double value : example) {
+                    if (!buffer.hasRemaining()) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putDouble(value);
+                }
+            }
+
+            for (Sample sample : dataSet) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(Arrays.binarySearch(tagNames, sample.getTag()));
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Converts a ';' separated resource of the BankMarketing data set to the binary format
+     */
+    public static void main(String[] args) throws URISyntaxException, IOException {
+        String resource = args.length > 0 ? args[0] : "bank.data";
+        Path path = Paths.get(args.length > 1 ? args[1] : "bank.knn");
+
+        long start = System.nanoTime();
+        List<BankMarketing> dataSet = BankMarketingLoader.load(resource);
+        long loaded = System.nanoTime();
+        write(dataSet, path);
+        long written = System.nanoTime();
+
+        System.out.println("Rows: " + dataSet.size() + " written to " + path.toAbsolutePath());
+        System.out.println("Parse Time: " + (loaded - start) / 1_000_000 + " ms.");
+        System.out.println("Write Time: " + (written - loaded) / 1_000_000 + " ms.");
+    }
+}
@@ -159,6 +159,87 @@ public class BankMarketing extends Sample{
 		
 	}
 
+	/**
+	 * Method that stablish the values of the attributes from the values of an example,
+	 * the values are narrowed to the types of the attributes
+	 * @param example Values of the attributes in the order of {@link #getExample()}
+	 * @param target Target of the example
+	 */
+	public void setData(double []example, String target) {
+		
+		if (example.length!=66) {
+			throw new IllegalArgumentException("Wrong data length: "+example.length);
+		}
+		age=(byte)example[0];
+		jobAdmin=(byte)example[1];
+		jobBlueCollar=(byte)example[2];
+		jobEntrepreneur=(byte)example[3];
+		jobHousemaid=(byte)example[4];
+		jobManagement=(byte)example[5];
+		jobRetired=(byte)example[6];
+		jobSelfEmployed=(byte)example[7];
+		jobServices=(byte)example[8];
+		jobStudent=(byte)example[9];
+		jobTechnician=(byte)example[10];
+		jobUnemployed=(byte)example[11];
+		jobUnknown=(byte)example[12];
+		maritalDivorced=(byte)example[13];
+		maritalMarried=(byte)example[14];
+		maritalSingle=(byte)example[15];
+		maritalUnknown=(byte)example[16];
+		educationBasic4y=(byte)example[17];
+		educationBasic6y=(byte)example[18];
+		educationBasic9y=(byte)example[19];
+		educationHighSchool=(byte)example[20];
+		educationIlliterate=(byte)example[21];
+		educationProfessionalCourse=(byte)example[22];
+		educationUniversityDegree=(byte)example[23];
+		educationUnknown=(byte)example[24];
+		creditNo=(byte)example[25];
+		creditYes=(byte)example[26];
+		creditUnknown=(byte)example[27];
+		housingNo=(byte)example[28];
+		housingYes=(byte)example[29];
+		housingUnknown=(byte)example[30];
+		loanNo=(byte)example[31];
+		loanYes=(byte)example[32];
+		loanUnknown=(byte)example[33];
+		contactCellular=(byte)example[34];
+		contactTelephone=(byte)example[35];
+		contactJan=(byte)example[36];
+		contactFeb=(byte)example[37];
+		contactMar=(byte)example[38];
+		contactApr=(byte)example[39];
+		contactMay=(byte)example[40];
+		contactJun=(byte)example[41];
+		contactJul=(byte)example[42];
+		contactAug=(byte)example[43];
+		contactSep=(byte)example[44];
+		contactOct=(byte)example[45];
+		contactNov=(byte)example[46];
+		contactDec=(byte)example[47];
+		contactMon=(byte)example[48];
+		contactTue=(byte)example[49];
+		contactWed=(byte)example[50];
+		contactThu=(byte)example[51];
+		contactFri=(byte)example[52];
+		duration=(int)example[53];
+		campaign=(byte)example[54];
+		pdays=(int)example[55];
+		pdaysNever=(byte)example[56];
+		previous=(byte)example[57];
+		poutcomeFailure=(byte)example[58];
+		poutcomeNonexistent=(byte)example[59];
+		poutcomeSuccess=(byte)example[60];
+		empVarRate=(float)example[61];
+		consPriceIdx=(float)example[62];
+		consConfIdx=(float)example[63];
+		euribor3m=(float)example[64];
+		nrEmployed=(float)example[65];
+		this.target=target;
+		
+	}
+
 	public byte getAge() {
 		return age;
 	}
@@ -772,6 +853,81 @@ public class BankMarketing extends Sample{
 		return ret;
 	}
 
+	@Override
+	public void copyExample(double[] target) {
+		target[0]=age;
+		target[1]=jobAdmin;
+		target[2]=jobBlueCollar;
+		target[3]=jobEntrepreneur;
+		target[4]=jobHousemaid;
+		target[5]=jobManagement;
+		target[6]=jobRetired;
+		target[7]=jobSelfEmployed;
+		target[8]=jobServices;
+		target[9]=jobStudent;
+		target[10]=jobTechnician;
+		target[11]=jobUnemployed;
+		target[12]=jobUnknown;
+		target[13]=maritalDivorced;
+		target[14]=maritalMarried;
+		target[15]=maritalSingle;
+		target[16]=maritalUnknown;
+		target[17]=educationBasic4y;
+		target[18]=educationBasic6y;
+		target[19]=educationBasic9y;
+		target[20]=educationHighSchool;
+		target[21]=educationIlliterate;
+		target[22]=educationProfessionalCourse;
+		target[23]=educationUniversityDegree;
+		target[24]=educationUnknown;
+		target[25]=creditNo;
+		target[26]=creditYes;
+		target[27]=creditUnknown;
+		target[28]=housingNo;
+		target[29]=housingYes;
+		target[30]=housingUnknown;
+		target[31]=loanNo;
+		target[32]=loanYes;
+		target[33]=loanUnknown;
+		target[34]=contactCellular;
+		target[35]=contactTelephone;
+		target[36]=contactJan;
+		target[37]=contactFeb;
+		target[38]=contactMar;
+		target[39]=contactApr;
+		target[40]=contactMay;
+		target[41]=contactJun;
+		target[42]=contactJul;
+		target[43]=contactAug;
+		target[44]=contactSep;
+		target[45]=contactOct;
+		target[46]=contactNov;
+		target[47]=contactDec;
+		target[48]=contactMon;
+		target[49]=contactTue;
+		target[50]=contactWed;
+		target[51]=contactThu;
+		target[52]=contactFri;
+		target[53]=duration;
+		target[54]=campaign;
+		target[55]=pdays;
+		target[56]=pdaysNever;
+		target[57]=previous;
+		target[58]=poutcomeFailure;
+		target[59]=poutcomeNonexistent;
+		target[60]=poutcomeSuccess;
+		target[61]=empVarRate;
+		target[62]=consPriceIdx;
+		target[63]=consConfIdx;
+		target[64]=euribor3m;
+		target[65]=nrEmployed;
+	}
+
+	@Override
+	public int getDimension() {
+		return 66;
+	}
+
 	@Override
 	public String toString() {
 		return "target: " + target + ", example: " + Arrays.toString(getExample());
@@ -34,6 +34,16 @@ public class BankMarketingLoader {
 
 		Path file = Paths.get(ClassLoader.getSystemResource(dataPath).toURI());
 
+		return load(file, maxLines);
+	}
+
+	/**
+	 * Method that loads the examples of the Bank Marketing data set from a file
+	 * @param file Path to the file where the data items are stored
+	 * @return List of BankMarketing examples
+	 */
+	public static List<BankMarketing> load (Path file, int maxLines) {
+
 		List<BankMarketing> dataSet=new ArrayList<>();
 		try (
 				InputStream in = Files.newInputStream(file);
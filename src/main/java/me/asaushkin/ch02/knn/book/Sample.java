@@ -18,4 +18,23 @@ public abstract class Sample {
 	 * @return The values of the attributes of the example
 	 */
 	public abstract double[] getExample();
+
+	/**
+	 * Method that copies the values of the attributes of the example to an array. The
+	 * subclasses can override it to avoid the array created by {@link #getExample()}
+	 * @param target Array where the values are stored, at least as long as the example
+	 */
+	public void copyExample(double[] target) {
+		double[] example = getExample();
+		System.arraycopy(example, 0, target, 0, example.length);
+	}
+
+	/**
+	 * Method that returns the number of attributes of the example. The subclasses can
+	 * override it to avoid the array created by {@link #getExample()}
+	 * @return The length of the array of {@link #getExample()}
+	 */
+	public int getDimension() {
+		return getExample().length;
+	}
 }
@@ -1,11 +1,16 @@
 package me.asaushkin.ch03;
 
 import me.asaushkin.ch02.clsrv.book.*;
+import me.asaushkin.ch02.knn.KnnCoarseGrainedClassifier;
+import me.asaushkin.ch02.knn.ParallelBankMarketingLoader;
+import me.asaushkin.ch02.knn.TrainingSet;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -18,6 +23,17 @@ import java.util.concurrent.TimeUnit;
  */
 public class ConcurrentServerCh3 {
 
+	/**
+	 * Number of neighbours of the classify command when the request doesn't give it
+	 */
+	public static final int DEFAULT_K = 10;
+
+	/**
+	 * Largest number of neighbours of the classify command, it bounds the classifiers
+	 * kept by the server as well
+	 */
+	public static final int MAX_K = 100;
+
 	/**
 	 * Executor to execute the commands of the server
 	 */
@@ -27,6 +43,18 @@ public class ConcurrentServerCh3 {
 	 * Cache to get a better performance
 	 */
 	private static ParallelCache cache;
+
+	/**
+	 * Training set of the classify command, loaded once at startup. It stays null if the
+	 * load fails, and then only the classify command reports an error
+	 */
+	private static TrainingSet trainingSet;
+
+	/**
+	 * Classifiers of the classify command by number of neighbours, at most {@link #MAX_K}.
+	 * All of them share the training set and run on the executor of the server
+	 */
+	private static final ConcurrentMap<Integer, KnnCoarseGrainedClassifier> classifiers = new ConcurrentHashMap<>();
 	
 	/**
 	 * Socket to read the requests of the clients
@@ -51,6 +79,12 @@ public class ConcurrentServerCh3 {
 		//WDIDAO dao = WDIDAO.getDAO();
 		executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 		cache = new ParallelCache();
+		try {
+			trainingSet = ParallelBankMarketingLoader.loadTrainingSet("bank.data", Integer.MAX_VALUE);
+			System.out.println("Training set: " + trainingSet.size());
+		} catch (IOException | URISyntaxException e) {
+			System.err.println("Training set not loaded, the classify command is disabled: " + e);
+		}
 		Logger.initializeLog();
 
 		System.out.println("Initialization completed.");
@@ -85,6 +119,34 @@ public class ConcurrentServerCh3 {
 		return executor;
 	}
 
+	/**
+	 * Method that returns the largest number of neighbours of the classify command
+	 * 
+	 * @return {@link #MAX_K}, or the size of the training set if it is smaller
+	 */
+	public static int getMaxK() {
+		TrainingSet set = trainingSet;
+		return set == null ? MAX_K : Math.min(MAX_K, set.size());
+	}
+
+	/**
+	 * Method that returns the classifier of the classify command. The classifier splits every
+	 * query among the threads of the server executor, and the request thread scans its own
+	 * share, so the queries don't need a pool of their own
+	 * 
+	 * @param k Number of neighbours, between 1 and {@link #getMaxK()}
+	 * @return The classifier, or null if the server didn't load the training set
+	 */
+	public static KnnCoarseGrainedClassifier getClassifier(int k) {
+		if (trainingSet == null) {
+			return null;
+		}
+		if (k <= 0 || k > getMaxK()) {
+			throw new IllegalArgumentException("Wrong number of neighbours: " + k);
+		}
+		return classifiers.computeIfAbsent(k, key -> new KnnCoarseGrainedClassifier(trainingSet, key, executor));
+	}
+
 	/**
 	 * Method that returns the cache
 	 * 